@@ -57,9 +57,11 @@ public class GLWindow {
         // Configure our window
         GLFW.glfwDefaultWindowHints();
         
-        // Request forward-compatible 3.2 OpenGL context with only core functionality
+        // Request forward-compatible 3.3 OpenGL context with only core functionality.
+        // This matches the GLSL version used by our shaders, and is required
+        // for instanced vertex attributes (see BillboardModelRenderer).
         GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MAJOR, 3);
-        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MINOR, 2);
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MINOR, 3);
         GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_PROFILE, GLFW.GLFW_OPENGL_CORE_PROFILE);
         GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_FORWARD_COMPAT, GLFW.GLFW_TRUE);
         
@@ -56,7 +56,7 @@ public class MousePicker {
             
         case CODE_TERRAIN:
             // Determine the section co-ordinates relative to the player's
-            // current section (see TerrainSection.createSelectionCode()).
+            // current section (see obj_selection.vert).
             int offsetX = Byte.toUnsignedInt(code[1]) - 128;
             int offsetY = Byte.toUnsignedInt(code[2]) - 128;
             World world = scene.getWorld();
@@ -64,10 +64,15 @@ public class MousePicker {
             int sectionX = player.getSectionX() + offsetX;
             int sectionZ = player.getSectionZ() + offsetY;
             TerrainSection terrainSection = world.getSection(sectionX, sectionZ);
+            if (terrainSection == null){
+                // Not ready yet
+                break;
+            }
             code = getSelectedFaceCode(x, y);
             int tileX = code[0];
             int tileY = code[1];
-            terrainSection.setTile(tileX, tileY, TerrainSection.TILE_GRASS);
+            world.getTerrainEdit().setTile(
+                    terrainSection, tileX, tileY, TerrainSection.TILE_GRASS);
             break;
             
         }
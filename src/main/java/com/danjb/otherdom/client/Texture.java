@@ -6,12 +6,22 @@ import java.nio.IntBuffer;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
-import org.lwjgl.opengl.GL13;
 import org.lwjgl.stb.STBImage;
 
+import com.danjb.otherdom.client.render.GLState;
+
 public class Texture {
 
     private static final String GFX_DIR = Client.RESOURCE_DIR + "gfx/";
+
+    /**
+     * Texture unit used while uploading the image.
+     * 
+     * Textures are drawn from unit 0 (see bind()), so loading a Texture
+     * mid-game must not replace whatever is bound there. This is the same
+     * unit that TerrainTextureArena uploads on.
+     */
+    private static final int UPLOAD_TEXTURE_UNIT = 3;
     
     private int id;
     
@@ -48,8 +58,7 @@ public class Texture {
         id = GL11.glGenTextures();
         
         // Pass our texture to the shader
-        GL13.glActiveTexture(GL13.GL_TEXTURE0 + 0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+        GLState.bindTexture(UPLOAD_TEXTURE_UNIT, GL11.GL_TEXTURE_2D, id);
         GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height,
                 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, texelData);
 
@@ -67,8 +76,6 @@ public class Texture {
         GL11.glTexParameteri(GL11.GL_TEXTURE_2D,
                 GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
 
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0); // Deselect
-
         int errorCode = GL11.glGetError();
         if (errorCode != GL11.GL_NO_ERROR) {
             throw new RuntimeException(
@@ -85,8 +92,7 @@ public class Texture {
      */
     public void bind() {
         // Bind our texture to texture unit 0
-        GL13.glActiveTexture(GL13.GL_TEXTURE0 + 0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, id);
     }
 
     public int getId() {
@@ -1,98 +1,296 @@
 package com.danjb.otherdom.client.render;
 
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 
-import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
 
-import com.danjb.otherdom.client.GLWindow;
+import com.danjb.otherdom.client.Texture;
 import com.danjb.otherdom.client.scene.BillboardModel;
 import com.danjb.otherdom.client.scene.Camera;
-import com.danjb.otherdom.client.scene.LightSettings;
 import com.danjb.otherdom.client.scene.Scene;
 
-public class BillboardModelRenderer extends Renderer {
+public class BillboardModelRenderer extends Renderer
+        implements RenderQueue.ItemRenderer {
 
-    private GLWindow window;
+    /**
+     * Number of floats in the instance data of each BillboardModel.
+     */
+    private static final int INSTANCE_COMPONENTS = 6;
 
-    private FloatBuffer fb3 = BufferUtils.createFloatBuffer(3);
-    private FloatBuffer fb16 = BufferUtils.createFloatBuffer(16);
-    
-    private Matrix4f projection = new Matrix4f();
-    private Matrix4f modelView = new Matrix4f();
-    
-    public BillboardModelRenderer(GLWindow window) {
-        this.window = window;
+    /**
+     * Number of bytes in the instance data of each BillboardModel.
+     */
+    private static final int INSTANCE_STRIDE =
+            INSTANCE_COMPONENTS * Float.BYTES;
+
+    /**
+     * Offset of the texture frame within the instance data, in bytes.
+     */
+    private static final int INSTANCE_FRAME_OFFSET = 4 * Float.BYTES;
+
+    /**
+     * A BillboardModel waiting to be drawn, and its distance from the camera.
+     */
+    private static class Instance {
+        BillboardModel model;
+        float dist;
+    }
+
+    /**
+     * A run of instances that share a texture, and are drawn together.
+     */
+    private static class Batch {
+        Texture texture;
+        int firstInstance;
+        int numInstances;
     }
 
-    public void render(Scene scene, RenderMode mode, BillboardModel model,
-            ShaderProgram shader) {
+    /**
+     * Order in which instances are written to the instance buffer.
+     *
+     * Instances are grouped by texture, so that each Batch is contiguous,
+     * then sorted furthest first, so that they blend correctly within each
+     * Batch.
+     */
+    private static final Comparator<Instance> INSTANCE_ORDER = (a, b) -> {
+        int result = Integer.compare(
+                a.model.getTexture().getId(),
+                b.model.getTexture().getId());
+        if (result != 0){
+            return result;
+        }
+        return Float.compare(b.dist, a.dist);
+    };
+
+    /*
+     * BillboardModels passed to add() since the last submit(), and the
+     * Batches they were split into. The Instance and Batch objects are
+     * reused every frame; only the arrays grow, as more players appear.
+     */
+    private Instance[] instances = new Instance[0];
+    private int numInstances;
+    private Batch[] batches = new Batch[0];
+
+    /**
+     * Position of the current model relative to the camera.
+     */
+    private Vector3f relativePos = new Vector3f();
+
+    /**
+     * Instance data for each BillboardModel.
+     *
+     * Each instance holds the position of the BillboardModel relative to the
+     * camera (x, y, z), its scale, its texture frame and its selection code.
+     */
+    private FloatBuffer instanceData = BufferUtils.createFloatBuffer(0);
+
+    /**
+     * Whether the instance data has changed since it was last sent to the
+     * GPU.
+     */
+    private boolean instanceDataChanged;
+
+    /**
+     * ID of the VBO to which the instance data is sent.
+     */
+    private int instanceVboId = -1;
+
+    /**
+     * Adds a BillboardModel to be drawn by the next call to submit().
+     *
+     * @param model
+     */
+    public void add(BillboardModel model) {
+        if (numInstances == instances.length){
+            int newCapacity = Math.max(16, instances.length * 2);
+            instances = Arrays.copyOf(instances, newCapacity);
+        }
+        if (instances[numInstances] == null){
+            instances[numInstances] = new Instance();
+        }
+        instances[numInstances].model = model;
+        numInstances++;
+    }
+
+    /**
+     * Adds the BillboardModels passed to add() to the RenderQueue.
+     *
+     * Every BillboardModel is drawn from the same quad, so those sharing a
+     * texture are drawn by a single item, using an instanced draw call.
+     *
+     * BillboardModels may be partially transparent, so they are drawn after
+     * all opaque objects. Each item is placed in the queue according to its
+     * furthest BillboardModel, and draws its BillboardModels furthest first.
+     *
+     * @param queue
+     * @param scene
+     * @param mode
+     */
+    public void submit(RenderQueue queue, Scene scene, RenderMode mode) {
+
+        if (numInstances == 0){
+            // Nothing to draw
+            return;
+        }
 
         Camera camera = scene.getCamera();
-        LightSettings lighting = scene.getLightSettings();
-     
-        // Set projection and modelview, just like TerrainRenderer
-        projection.setPerspective(
-                camera.getFovY(),
-                window.getAspectRatio(), 
-                Camera.Z_NEAR,
-                Camera.Z_FAR);
-        shader.setUniformMatrix4f(
-                Shaders.UNIFORM_PROJECTION, projection.get(fb16));
-        modelView.setLookAt(
-                camera.getPos(),
-                camera.getTarget(),
-                camera.getUpVector());
-        modelView.translate(model.getPos());
-        shader.setUniformMatrix4f(
-                Shaders.UNIFORM_MODELVIEW, modelView.get(fb16));
-        
-        if (mode == RenderMode.NORMAL){
-            // We use simplified lighting for sprites (no diffuse angle)
-            shader.setUniform3f(Shaders.UNIFORM_AMBIENT_COLOUR,
-                    lighting.getAmbientColour().get(fb3));
-            shader.setUniform1f(Shaders.UNIFORM_AMBIENT_INTENSITY,
-                    lighting.getAmbientIntensity());
-            shader.setUniform3f(Shaders.UNIFORM_DIFFUSE_COLOUR,
-                    lighting.getDiffuseColour().get(fb3));
-            shader.setUniform1f(Shaders.UNIFORM_DIFFUSE_INTENSITY,
-                    lighting.getDiffuseIntensity());
-            
-        } else if (mode == RenderMode.OBJ_SELECTION){
-            // Determine the selection code for the object being rendered
-            Vector3f code = model.getSelectionCode();
-            shader.setUniform3f(Shaders.UNIFORM_SELECTION_CODE, code.get(fb3));
+        for (int i = 0; i < numInstances; i++){
+            Instance instance = instances[i];
+            camera.getRelativePos(instance.model.getPos(), relativePos);
+            instance.dist = relativePos.length();
+        }
+        Arrays.sort(instances, 0, numInstances, INSTANCE_ORDER);
+
+        if (instanceData.capacity() < numInstances * INSTANCE_COMPONENTS){
+            instanceData = BufferUtils.createFloatBuffer(
+                    instances.length * INSTANCE_COMPONENTS);
+        }
+
+        // Write the instance data, starting a new Batch for each texture
+        int numBatches = 0;
+        Batch batch = null;
+        instanceData.clear();
+        for (int i = 0; i < numInstances; i++){
+            BillboardModel model = instances[i].model;
+
+            if (batch == null || batch.texture != model.getTexture()){
+                batch = getBatch(numBatches++);
+                batch.texture = model.getTexture();
+                batch.firstInstance = i;
+                batch.numInstances = 0;
+
+                // This is the furthest BillboardModel in the Batch
+                queue.submit(RenderQueue.PASS_ALPHA,
+                        getShader(mode).getProgramId(),
+                        batch.texture.getId(),
+                        BillboardModel.getQuadVaoId(),
+                        instances[i].dist / camera.getViewDistance(),
+                        this,
+                        batch);
+            }
+            batch.numInstances++;
+
+            int index = i * INSTANCE_COMPONENTS;
+            camera.getRelativePos(model.getPos(), relativePos);
+            instanceData.put(index, relativePos.x);
+            instanceData.put(index + 1, relativePos.y);
+            instanceData.put(index + 2, relativePos.z);
+            instanceData.put(index + 3, model.getScale());
+            instanceData.put(index + 4, model.getTextureFrame());
+            instanceData.put(index + 5, model.getSelectionCode());
+
+            // Don't hold on to models that might be removed from the scene
+            instances[i].model = null;
+        }
+        instanceData.position(0);
+        instanceData.limit(numInstances * INSTANCE_COMPONENTS);
+        instanceDataChanged = true;
+
+        numInstances = 0;
+    }
+
+    /**
+     * Gets a Batch that can be reused, creating it if necessary.
+     *
+     * @param index
+     * @return
+     */
+    private Batch getBatch(int index) {
+        if (index == batches.length){
+            batches = Arrays.copyOf(batches, Math.max(4, batches.length * 2));
         }
+        if (batches[index] == null){
+            batches[index] = new Batch();
+        }
+        return batches[index];
+    }
+
+    /**
+     * Gets the ShaderProgram used to draw BillboardModels in the given
+     * RenderMode.
+     *
+     * @param mode
+     * @return
+     */
+    private static ShaderProgram getShader(RenderMode mode) {
+        if (mode == RenderMode.OBJ_SELECTION){
+            return Shaders.billboardSelectionShader;
+        }
+        return Shaders.billboardShader;
+    }
+
+    /**
+     * Draws a Batch of BillboardModels submitted by submit().
+     *
+     * The position, scale, texture frame and selection code of each
+     * BillboardModel are all read from the instance data, and the camera and
+     * lighting are shared by the whole frame (see FrameUniforms), so the only
+     * per-Batch setting is the texture.
+     */
+    @Override
+    public void draw(Scene scene, RenderMode mode, Object item) {
+
+        Batch batch = (Batch) item;
+
+        ShaderProgram shader = getShader(mode);
+        shader.use();
 
         // We always need to set the texture, even in selection mode, because
         // we don't want a mouse click on a transparent pixels to count as
         // clicking on the player.
-        model.getTexture().bind();
+        batch.texture.bind();
         // Tell the shader to sample from texture unit 0.
         // This is the default anyway.
         shader.setUniform1i(Shaders.UNIFORM_TEXUNIT, 0);
-        
-        // Set scale
-        shader.setUniform1f(Shaders.UNIFORM_SCALE, model.getScale());
-        
-        // Bind to the VAO that has all the information about the vertices
-        GL30.glBindVertexArray(model.getVaoId());
-        shader.enableVertexAttributeArray(Shaders.ATTR_VERTEX);
-        shader.enableVertexAttributeArray(Shaders.ATTR_TEXTURE_COORDS);
-            
+
+        // Bind to the VAO of the quad shared by every BillboardModel.
+        // The VAO also remembers which vertex attributes are enabled.
+        GLState.bindVertexArray(BillboardModel.getQuadVaoId());
+
+        if (instanceVboId == -1){
+            instanceVboId = GL15.glGenBuffers();
+
+            // Each BillboardModel reads one set of instance attributes for
+            // all 6 vertices of the quad. The divisors live in the quad's VAO,
+            // which is shared, so this is set up once for every
+            // BillboardModel.
+            GL33.glVertexAttribDivisor(Shaders.ATTR_BILLBOARD, 1);
+            GL33.glVertexAttribDivisor(Shaders.ATTR_BILLBOARD_FRAME, 1);
+            GL20.glEnableVertexAttribArray(Shaders.ATTR_BILLBOARD);
+            GL20.glEnableVertexAttribArray(Shaders.ATTR_BILLBOARD_FRAME);
+        }
+
+        // Send the instance data, replacing last frame's. Every Batch reads
+        // from the same buffer, so this only happens for the first one.
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceVboId);
+        if (instanceDataChanged){
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, instanceData,
+                    GL15.GL_STREAM_DRAW);
+            instanceDataChanged = false;
+        }
+
+        // Point the instance attributes at the first BillboardModel in the
+        // Batch
+        long offset = (long) batch.firstInstance * INSTANCE_STRIDE;
+        GL20.glVertexAttribPointer(Shaders.ATTR_BILLBOARD,
+                4, GL11.GL_FLOAT, false, INSTANCE_STRIDE, offset);
+        GL20.glVertexAttribPointer(Shaders.ATTR_BILLBOARD_FRAME,
+                2, GL11.GL_FLOAT, false, INSTANCE_STRIDE,
+                offset + INSTANCE_FRAME_OFFSET);
+
         // Draw the vertices
-        GL11.glDrawArrays(
-                GL11.GL_TRIANGLES, 0, BillboardModel.NUM_VERTICES);
-
-        // Put everything back to default (deselect)
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-        shader.disableVertexAttributeArray(Shaders.ATTR_VERTEX);
-        shader.disableVertexAttributeArray(Shaders.ATTR_TEXTURE_COORDS);
-        
-        GL30.glBindVertexArray(0);
+        GL31.glDrawArraysInstanced(GL11.GL_TRIANGLES,
+                0, BillboardModel.NUM_VERTICES, batch.numInstances);
+
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
     }
 
 }
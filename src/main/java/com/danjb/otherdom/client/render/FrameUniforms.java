@@ -0,0 +1,181 @@
+package com.danjb.otherdom.client.render;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import com.danjb.otherdom.client.GLWindow;
+import com.danjb.otherdom.client.scene.Camera;
+import com.danjb.otherdom.client.scene.LightSettings;
+import com.danjb.otherdom.client.scene.Scene;
+
+/**
+ * Uniform buffer holding the camera and lighting settings, which are the
+ * same for everything drawn in a frame.
+ *
+ * This is filled once per frame, and bound to Shaders.BLOCK_FRAME, which
+ * every ShaderProgram reads from (see the "Frame" block in each shader).
+ * Renderers then only need to set the uniforms that differ between objects.
+ *
+ * The layout of the buffer follows the std140 rules:
+ *
+ *     mat4 projection;
+ *     mat4 view;
+ *     vec3 lightAmbientColour;  float lightAmbientIntensity;
+ *     vec3 lightDiffuseColour;  float lightDiffuseIntensity;
+ *     vec3 lightDiffuseAngle;   float fogStart;
+ *     vec3 fogColour;           float fogEnd;
+ *
+ * Each vec3 is padded to the size of a vec4, so we fill the gaps with the
+ * float values.
+ */
+public class FrameUniforms {
+
+    /**
+     * Fraction of the view distance at which the terrain starts to fade into
+     * the fog.
+     *
+     * The terrain is completely hidden by the fog at the view distance, so
+     * the edge of the loaded terrain is never visible.
+     */
+    private static final float FOG_START = 0.6f;
+
+    // Offsets of each member, in floats
+    private static final int OFFSET_PROJECTION = 0;
+    private static final int OFFSET_VIEW = 16;
+    private static final int OFFSET_AMBIENT_COLOUR = 32;
+    private static final int OFFSET_AMBIENT_INTENSITY = 35;
+    private static final int OFFSET_DIFFUSE_COLOUR = 36;
+    private static final int OFFSET_DIFFUSE_INTENSITY = 39;
+    private static final int OFFSET_DIFFUSE_ANGLE = 40;
+    private static final int OFFSET_FOG_START = 43;
+    private static final int OFFSET_FOG_COLOUR = 44;
+    private static final int OFFSET_FOG_END = 47;
+
+    /**
+     * Size of the buffer, in floats.
+     */
+    private static final int NUM_FLOATS = 48;
+
+    private GLWindow window;
+
+    private FloatBuffer data = BufferUtils.createFloatBuffer(NUM_FLOATS);
+
+    private Matrix4f projection = new Matrix4f();
+
+    /**
+     * View matrix, with the camera at the origin (see Camera).
+     */
+    private Matrix4f view = new Matrix4f();
+
+    /**
+     * ID of the uniform buffer.
+     */
+    private int uboId = -1;
+
+    public FrameUniforms(GLWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * Calculates the settings for the current frame, and sends them to the
+     * GPU.
+     *
+     * This must be called before anything is drawn.
+     *
+     * @param scene
+     */
+    public void update(Scene scene) {
+
+        Camera camera = scene.getCamera();
+        LightSettings lighting = scene.getLightSettings();
+
+        /*
+         * Set the projection matrix.
+         * This specifies the properties of the camera.
+         */
+        projection.setPerspective(
+                camera.getFovY(),
+                window.getAspectRatio(),
+                Camera.Z_NEAR,
+                camera.getViewDistance());
+        projection.get(OFFSET_PROJECTION, data);
+
+        /*
+         * Set the view matrix.
+         * The result of this is that all vertices in the game world are moved
+         * according to the camera position / orientation; the camera itself
+         * technically never moves in OpenGL:
+         * https://www.opengl.org/archives/resources/faq/technical/viewing.htm
+         *
+         * We draw everything relative to the camera, so that the matrix does
+         * not lose precision far from the world origin. Each object must then
+         * be offset by its position relative to the camera.
+         */
+        camera.getRelativeView(view);
+        view.get(OFFSET_VIEW, data);
+
+        /*
+         * Set the lighting information.
+         *
+         * To compute the diffuse component, we need:
+         *  - The vector from the vertex to the light source.
+         *  - The vertex normal.
+         *  - The diffuse component of the light (RGB).
+         *  - The diffuse component of the vertex (RGB).
+         *
+         * The diffuse vector and diffuse component of the light are uniform
+         * variables, while the vertex normal and diffuse component of the
+         * vertex are per-vertex variables.
+         *
+         * See:
+         * http://www.lighthouse3d.com/opengl/terrain/index.php?light
+         */
+        lighting.getAmbientColour().get(OFFSET_AMBIENT_COLOUR, data);
+        data.put(OFFSET_AMBIENT_INTENSITY, lighting.getAmbientIntensity());
+        lighting.getDiffuseColour().get(OFFSET_DIFFUSE_COLOUR, data);
+        data.put(OFFSET_DIFFUSE_INTENSITY, lighting.getDiffuseIntensity());
+        lighting.getDiffuseVector().get(OFFSET_DIFFUSE_ANGLE, data);
+
+        // Fade distant objects into the fog
+        lighting.getFogColour().get(OFFSET_FOG_COLOUR, data);
+        data.put(OFFSET_FOG_START, FOG_START * camera.getViewDistance());
+        data.put(OFFSET_FOG_END, camera.getViewDistance());
+
+        if (uboId == -1){
+            uboId = GL15.glGenBuffers();
+            // Shaders read the block from this binding point
+            GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER,
+                    Shaders.BLOCK_FRAME, uboId);
+        }
+
+        // Send the data, replacing last frame's
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uboId);
+        GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, data, GL15.GL_STREAM_DRAW);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0); // Deselect
+    }
+
+    /**
+     * Gets the projection matrix for the current frame.
+     *
+     * @return
+     */
+    public Matrix4f getProjection() {
+        return projection;
+    }
+
+    /**
+     * Gets the view matrix for the current frame, with the camera at the
+     * origin.
+     *
+     * @return
+     */
+    public Matrix4f getView() {
+        return view;
+    }
+
+}
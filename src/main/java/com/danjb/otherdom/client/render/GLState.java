@@ -0,0 +1,214 @@
+package com.danjb.otherdom.client.render;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Record of the OpenGL state that changes most often while drawing.
+ *
+ * All programs, textures and VAOs should be bound through this class, so
+ * that it always knows what is currently bound. Any call that would not
+ * change the state is then skipped, which means renderers can simply bind
+ * whatever they need before each draw, without worrying about what was
+ * drawn before.
+ *
+ * For the same reason, there is no need to deselect anything after
+ * drawing; doing so would only force the next draw to bind it again.
+ *
+ * Vertex attribute arrays are not tracked here, since they are part of the
+ * state of each VAO; they are enabled once, when the VAO is created (see
+ * VertexFormat.setupAttributes()).
+ *
+ * This must only be used on the rendering thread.
+ */
+public class GLState {
+
+    /**
+     * Number of texture units whose bindings are tracked.
+     *
+     * This is the minimum number available to fragment shaders in OpenGL
+     * 3.3. Textures bound to any higher unit are always passed straight
+     * through.
+     */
+    private static final int NUM_TEXTURE_UNITS = 16;
+
+    private static int program;
+
+    private static int vertexArray;
+
+    /**
+     * Texture unit affected by bindTexture().
+     */
+    private static int activeTextureUnit;
+
+    /**
+     * Texture bound to each unit, for each tracked target.
+     */
+    private static int[] boundTextures2d = new int[NUM_TEXTURE_UNITS];
+    private static int[] boundTextureArrays = new int[NUM_TEXTURE_UNITS];
+
+    /**
+     * Number of calls passed through to OpenGL since the counters were last
+     * reset.
+     */
+    private static int numCallsMade;
+
+    /**
+     * Number of calls skipped since the counters were last reset, because
+     * they would not have changed the state.
+     */
+    private static int numCallsSaved;
+
+    /**
+     * Starts using the given shader program.
+     *
+     * @param programId Program ID, or 0 to deselect.
+     */
+    public static void useProgram(int programId) {
+        if (program == programId){
+            numCallsSaved++;
+            return;
+        }
+        GL20.glUseProgram(programId);
+        program = programId;
+        numCallsMade++;
+    }
+
+    /**
+     * Binds the given VAO.
+     *
+     * @param vaoId VAO ID, or 0 to deselect.
+     */
+    public static void bindVertexArray(int vaoId) {
+        if (vertexArray == vaoId){
+            numCallsSaved++;
+            return;
+        }
+        GL30.glBindVertexArray(vaoId);
+        vertexArray = vaoId;
+        numCallsMade++;
+    }
+
+    /**
+     * Selects the texture unit affected by subsequent texture bindings.
+     *
+     * @param unit Index of the texture unit, starting from 0.
+     */
+    public static void setActiveTexture(int unit) {
+        if (activeTextureUnit == unit){
+            numCallsSaved++;
+            return;
+        }
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        numCallsMade++;
+    }
+
+    /**
+     * Binds a texture to the given texture unit.
+     *
+     * This leaves the given unit active.
+     *
+     * @param unit
+     * @param target
+     * @param textureId
+     */
+    public static void bindTexture(int unit, int target, int textureId) {
+        setActiveTexture(unit);
+        bindTexture(target, textureId);
+    }
+
+    /**
+     * Binds a texture to the active texture unit.
+     *
+     * This is suitable when uploading texture data, for which the unit does
+     * not matter.
+     *
+     * @param target
+     * @param textureId Texture ID, or 0 to deselect.
+     */
+    public static void bindTexture(int target, int textureId) {
+
+        int[] boundTextures = getBoundTextures(target);
+        boolean tracked = boundTextures != null
+                && activeTextureUnit < NUM_TEXTURE_UNITS;
+
+        if (tracked && boundTextures[activeTextureUnit] == textureId){
+            numCallsSaved++;
+            return;
+        }
+
+        GL11.glBindTexture(target, textureId);
+        numCallsMade++;
+
+        if (tracked){
+            boundTextures[activeTextureUnit] = textureId;
+        }
+    }
+
+    /**
+     * Deletes a texture.
+     *
+     * OpenGL unbinds a deleted texture from every unit, and may later reuse
+     * its ID, so we must forget any bindings to it.
+     *
+     * @param textureId
+     */
+    public static void deleteTexture(int textureId) {
+        GL11.glDeleteTextures(textureId);
+        for (int unit = 0; unit < NUM_TEXTURE_UNITS; unit++){
+            if (boundTextures2d[unit] == textureId){
+                boundTextures2d[unit] = 0;
+            }
+            if (boundTextureArrays[unit] == textureId){
+                boundTextureArrays[unit] = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the bindings of the given texture target.
+     *
+     * @param target
+     * @return The texture bound to each unit, or null if the target is not
+     * tracked.
+     */
+    private static int[] getBoundTextures(int target) {
+        switch (target){
+        case GL11.GL_TEXTURE_2D:
+            return boundTextures2d;
+        case GL30.GL_TEXTURE_2D_ARRAY:
+            return boundTextureArrays;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of calls passed through to OpenGL since the counters
+     * were last reset.
+     *
+     * @return
+     */
+    public static int getNumCallsMade() {
+        return numCallsMade;
+    }
+
+    /**
+     * Gets the number of redundant calls skipped since the counters were
+     * last reset.
+     *
+     * @return
+     */
+    public static int getNumCallsSaved() {
+        return numCallsSaved;
+    }
+
+    public static void resetCounters() {
+        numCallsMade = 0;
+        numCallsSaved = 0;
+    }
+
+}
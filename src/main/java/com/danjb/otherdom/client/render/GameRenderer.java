@@ -10,40 +10,40 @@ import com.danjb.otherdom.client.scene.World;
 public class GameRenderer extends Renderer {
 
     private Scene scene;
+    private FrameUniforms frameUniforms;
+    private RenderQueue renderQueue = new RenderQueue();
     private TerrainRenderer terrainRenderer;
     private BillboardModelRenderer billboardModelRenderer;
     
     public GameRenderer(GLWindow window, Scene scene) {
         this.scene = scene;
         
-        terrainRenderer = new TerrainRenderer(window);
-        billboardModelRenderer = new BillboardModelRenderer(window);
+        frameUniforms = new FrameUniforms(window);
+        terrainRenderer = new TerrainRenderer(frameUniforms);
+        billboardModelRenderer = new BillboardModelRenderer();
     }
 
     public void render(RenderMode mode) {
+        // Count only the state changes made while drawing this frame
+        GLState.resetCounters();
         clearScreen();
-        terrainRenderer.render(scene, mode);
-        renderPlayers(scene, mode);
+        frameUniforms.update(scene);
+        
+        // Collect everything to be drawn, then draw it in the best order
+        terrainRenderer.submit(renderQueue, scene, mode);
+        submitPlayers(scene, mode);
+        renderQueue.execute(scene, mode);
     }
 
-    public void renderPlayers(Scene scene, RenderMode mode) {
-
-        ShaderProgram shader = null;
-        if (mode == RenderMode.OBJ_SELECTION){
-            shader = Shaders.billboardSelectionShader;
-        } else {
-            shader = Shaders.billboardShader;
-        }
-        shader.use();
+    private void submitPlayers(Scene scene, RenderMode mode) {
         
         World world = scene.getWorld();
         Map<Integer, Player> players = world.getPlayers();
         
         for (Player player : players.values()){
-            billboardModelRenderer.render(scene, mode, player.getModel(), shader);
+            billboardModelRenderer.add(player.getModel());
         }
-
-        shader.deselect();
+        billboardModelRenderer.submit(renderQueue, scene, mode);
     }
 
 }
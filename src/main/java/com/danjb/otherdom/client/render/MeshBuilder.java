@@ -0,0 +1,64 @@
+package com.danjb.otherdom.client.render;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL15;
+
+/**
+ * Builds the vertex data for a VBO.
+ *
+ * Vertices are written to a staging buffer borrowed from the
+ * StagingBufferPool, in one of the formats described by VertexFormat. Once
+ * the data has been sent to the GPU, the staging buffer is returned to the
+ * pool, so that models do not need to keep a copy of their vertex data.
+ *
+ * A MeshBuilder can only be used for a single upload.
+ */
+public class MeshBuilder {
+
+    private VertexFormat format;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a MeshBuilder with room for the given number of vertices.
+     *
+     * @param format
+     * @param numVertices
+     */
+    public MeshBuilder(VertexFormat format, int numVertices) {
+        this.format = format;
+        buffer = StagingBufferPool.acquire(numVertices * format.getStride());
+    }
+
+    public void putPosition(int vertex, float x, float y, float z) {
+        format.putPosition(buffer, vertex, x, y, z);
+    }
+
+    public void putTexCoords(int vertex, float s, float t) {
+        format.putTexCoords(buffer, vertex, s, t);
+    }
+
+    /**
+     * Creates a new VBO containing the vertex data.
+     *
+     * This must be called on the rendering thread.
+     *
+     * @param usage Usage hint, e.g. GL_STATIC_DRAW.
+     * @return The ID of the new VBO.
+     */
+    public int createVbo(int usage) {
+        int id = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, id);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, usage);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        release();
+        return id;
+    }
+
+    private void release() {
+        StagingBufferPool.release(buffer);
+        buffer = null;
+    }
+
+}
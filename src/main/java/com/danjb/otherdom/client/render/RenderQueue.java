@@ -0,0 +1,177 @@
+package com.danjb.otherdom.client.render;
+
+import java.util.Arrays;
+
+import com.danjb.otherdom.client.render.Renderer.RenderMode;
+import com.danjb.otherdom.client.scene.Scene;
+
+/**
+ * Queue of everything to be drawn in a frame.
+ *
+ * Renderers submit draw items instead of drawing immediately. Once every
+ * item has been submitted, the queue sorts them and draws them in order.
+ *
+ * Each item is identified by a 64-bit key, packed so that sorting the keys
+ * sorts the items:
+ *
+ * - Opaque pass:
+ *   [pass: 2][program: 6][texture: 12][VAO: 12][depth: 16][index: 16]
+ *
+ * - Alpha pass:
+ *   [pass: 2][inverse depth: 16][program: 6][texture: 12][VAO: 12][index: 16]
+ *
+ * All opaque items are therefore drawn before any alpha-blended items.
+ * Opaque items are grouped by their state, so that each program, texture
+ * and VAO is bound as few times as possible (see GLState), then drawn
+ * front to back. Alpha-blended items must be drawn back to front to blend
+ * correctly, so depth takes priority over state in that pass.
+ *
+ * IDs too large for their fields are truncated. This can only make the
+ * grouping less effective; it never affects which state an item is drawn
+ * with.
+ *
+ * The index of each item within the queue is stored in the lowest bits, so
+ * that the keys can be sorted as plain longs without any allocation.
+ */
+public class RenderQueue {
+
+    /**
+     * Object that draws items submitted to a RenderQueue.
+     */
+    public interface ItemRenderer {
+
+        /**
+         * Draws an item.
+         *
+         * This must bind all the state the item needs, since items are drawn
+         * in a different order from that in which they were submitted.
+         *
+         * @param scene
+         * @param mode
+         * @param item The item passed to submit().
+         */
+        void draw(Scene scene, RenderMode mode, Object item);
+
+    }
+
+    public static final int PASS_OPAQUE = 0;
+    public static final int PASS_ALPHA = 1;
+
+    private static final int INDEX_BITS = 16;
+    private static final int DEPTH_BITS = 16;
+    private static final int VAO_BITS = 12;
+    private static final int TEXTURE_BITS = 12;
+    private static final int PROGRAM_BITS = 6;
+
+    /**
+     * Position of the pass field, at the top of the key.
+     *
+     * There are only 2 passes, so the sign bit is never set, and keys can be
+     * compared as signed longs.
+     */
+    private static final int PASS_SHIFT = 62;
+
+    /**
+     * Maximum number of items in the queue at once.
+     */
+    private static final int MAX_ITEMS = 1 << INDEX_BITS;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private ItemRenderer[] renderers = new ItemRenderer[INITIAL_CAPACITY];
+    private Object[] items = new Object[INITIAL_CAPACITY];
+
+    private int numItems;
+
+    /**
+     * Adds an item to the queue.
+     *
+     * @param pass PASS_OPAQUE or PASS_ALPHA.
+     * @param programId ID of the shader program the item is drawn with.
+     * @param textureId ID of the main texture the item is drawn with.
+     * @param vaoId ID of the VAO the item is drawn from.
+     * @param depth Distance of the item from the camera, between 0 (at the
+     * camera) and 1 (at the view distance).
+     * @param renderer Object that will draw the item.
+     * @param item Object passed back to the renderer when it is drawn.
+     */
+    public void submit(int pass, int programId, int textureId, int vaoId,
+            float depth, ItemRenderer renderer, Object item) {
+
+        if (numItems == MAX_ITEMS){
+            throw new IllegalStateException(
+                    "Too many items in RenderQueue; the limit is "
+                            + MAX_ITEMS);
+        }
+        if (numItems == keys.length){
+            int newCapacity = Math.min(keys.length * 2, MAX_ITEMS);
+            keys = Arrays.copyOf(keys, newCapacity);
+            renderers = Arrays.copyOf(renderers, newCapacity);
+            items = Arrays.copyOf(items, newCapacity);
+        }
+
+        long depthBits = (long) (Math.max(0, Math.min(1, depth))
+                * mask(DEPTH_BITS));
+
+        // Program, texture and VAO together
+        long state = field(programId, PROGRAM_BITS);
+        state = (state << TEXTURE_BITS) | field(textureId, TEXTURE_BITS);
+        state = (state << VAO_BITS) | field(vaoId, VAO_BITS);
+
+        long key;
+        if (pass == PASS_ALPHA){
+            // Furthest first
+            long inverseDepth = mask(DEPTH_BITS) - depthBits;
+            key = (inverseDepth << (PROGRAM_BITS + TEXTURE_BITS + VAO_BITS))
+                    | state;
+        } else {
+            // Grouped by state, then nearest first
+            key = (state << DEPTH_BITS) | depthBits;
+        }
+        key = (key << INDEX_BITS) | numItems;
+        key |= (long) pass << PASS_SHIFT;
+
+        keys[numItems] = key;
+        renderers[numItems] = renderer;
+        items[numItems] = item;
+        numItems++;
+    }
+
+    /**
+     * Draws every item in the queue, in sorted order, and empties the queue.
+     *
+     * @param scene
+     * @param mode
+     */
+    public void execute(Scene scene, RenderMode mode) {
+
+        Arrays.sort(keys, 0, numItems);
+
+        for (int i = 0; i < numItems; i++){
+            int index = (int) (keys[i] & mask(INDEX_BITS));
+            renderers[index].draw(scene, mode, items[index]);
+        }
+
+        // Don't hold on to objects that might be removed from the scene
+        Arrays.fill(renderers, 0, numItems, null);
+        Arrays.fill(items, 0, numItems, null);
+        numItems = 0;
+    }
+
+    /**
+     * Truncates a value to fit within a field of the given size.
+     *
+     * @param value
+     * @param numBits
+     * @return
+     */
+    private static long field(int value, int numBits) {
+        return value & mask(numBits);
+    }
+
+    private static long mask(int numBits) {
+        return (1L << numBits) - 1;
+    }
+
+}
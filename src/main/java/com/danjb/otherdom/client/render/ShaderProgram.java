@@ -4,11 +4,11 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
 
 /**
  * Class representing a shader program to be run on the GPU.
@@ -47,9 +47,21 @@ public class ShaderProgram {
         private int programId;
         
         /**
-         * Locations of our uniform variables.
+         * Locations of our uniform variables, indexed by uniform handle.
          */
-        private Map<String, Integer> uniformLocations = new HashMap<>();
+        private int[] uniformLocations = createUniformLocations();
+        
+        /**
+         * Creates an array of uniform locations, in which no uniforms are
+         * present.
+         * 
+         * @return
+         */
+        private static int[] createUniformLocations() {
+            int[] locations = new int[Shaders.NUM_UNIFORMS];
+            Arrays.fill(locations, -1);
+            return locations;
+        }
         
         /**
          * Creates a new program using the given vertex and fragment shader.
@@ -150,12 +162,13 @@ public class ShaderProgram {
         /**
          * Retrives the location of a uniform variable for later use.
          * 
-         * @param key
+         * @param uniform Handle by which the uniform will be set (one of the
+         * UNIFORM constants in Shaders).
          * @param parameterName
          * @return This Builder object, for call chaining.
          * @throws ShaderException
          */
-        public Builder addUniform(String key, String parameterName)
+        public Builder addUniform(int uniform, String parameterName)
                 throws ShaderException{
             
             int loc = GL20.glGetUniformLocation(programId, parameterName);
@@ -166,7 +179,32 @@ public class ShaderProgram {
                         "Unable to find uniform location: " + parameterName);
             }
             
-            uniformLocations.put(key, loc);
+            uniformLocations[uniform] = loc;
+            
+            return this;
+        }
+
+        /**
+         * Connects the given uniform block to the given binding point, from
+         * which it will read its uniform buffer.
+         *
+         * @param binding
+         * @param blockName
+         * @return This Builder object, for call chaining.
+         * @throws ShaderException
+         */
+        public Builder addUniformBlock(int binding, String blockName)
+                throws ShaderException{
+            
+            int index = GL31.glGetUniformBlockIndex(programId, blockName);
+            
+            if (index == GL31.GL_INVALID_INDEX){
+                GL20.glDeleteProgram(programId);
+                throw new ShaderException(
+                        "Unable to find uniform block: " + blockName);
+            }
+            
+            GL31.glUniformBlockBinding(programId, index, binding);
             
             return this;
         }
@@ -201,15 +239,35 @@ public class ShaderProgram {
     // ShaderProgram
     ////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Number of components in the largest uniform type (mat4).
+     */
+    private static final int MAX_UNIFORM_COMPONENTS = 16;
+
     /**
      * ID of the compiled shader program.
      */
     private int programId;
 
     /**
-     * Locations of our uniform variables.
+     * Locations of our uniform variables, indexed by uniform handle.
+     */
+    private int[] uniformLocations;
+    
+    /**
+     * Last value sent to each uniform, indexed by
+     * (uniform handle * MAX_UNIFORM_COMPONENTS + component).
+     * 
+     * Floats are stored by their bit patterns, so that every value can be
+     * compared exactly, whatever its type.
      */
-    private Map<String, Integer> uniformLocations = new HashMap<>();
+    private int[] uniformValues =
+            new int[Shaders.NUM_UNIFORMS * MAX_UNIFORM_COMPONENTS];
+    
+    /**
+     * Whether each uniform has been set since this ShaderProgram was built.
+     */
+    private boolean[] uniformValuesKnown = new boolean[Shaders.NUM_UNIFORMS];
     
     public ShaderProgram(Builder builder) {
         this.programId = builder.programId;
@@ -220,38 +278,88 @@ public class ShaderProgram {
      * Starts using this ShaderProgram.
      */
     public void use() {
-        GL20.glUseProgram(programId);
+        GLState.useProgram(programId);
+    }
+
+    public int getProgramId() {
+        return programId;
     }
 
     /**
      * Stops using this ShaderProgram.
      */
     public void deselect() {
-        GL20.glUseProgram(0);
+        GLState.useProgram(0);
     }
 
-    public void setUniformMatrix4f(String key, FloatBuffer fb) {
-        GL20.glUniformMatrix4fv(uniformLocations.get(key), false, fb);
+    /*
+     * The uniform setters below only call OpenGL if the value differs from
+     * the last one sent, since uniform values are kept by the program
+     * between draws. This ShaderProgram must be in use.
+     */
+
+    public void setUniformMatrix4f(int uniform, FloatBuffer fb) {
+        if (updateValues(uniform, fb, 16)){
+            GL20.glUniformMatrix4fv(uniformLocations[uniform], false, fb);
+        }
     }
 
-    public void setUniform1f(String key, float i) {
-        GL20.glUniform1f(uniformLocations.get(key), i);
+    public void setUniform1f(int uniform, float f) {
+        if (updateValue(uniform, Float.floatToRawIntBits(f))){
+            GL20.glUniform1f(uniformLocations[uniform], f);
+        }
     }
 
-    public void setUniform1i(String key, int i) {
-        GL20.glUniform1i(uniformLocations.get(key), i);
+    public void setUniform1i(int uniform, int i) {
+        if (updateValue(uniform, i)){
+            GL20.glUniform1i(uniformLocations[uniform], i);
+        }
     }
 
-    public void setUniform3f(String key, FloatBuffer fb) {
-        GL20.glUniform3fv(uniformLocations.get(key), fb);
+    public void setUniform3f(int uniform, FloatBuffer fb) {
+        if (updateValues(uniform, fb, 3)){
+            GL20.glUniform3fv(uniformLocations[uniform], fb);
+        }
     }
 
-    public void enableVertexAttributeArray(int attributeId) {
-        GL20.glEnableVertexAttribArray(attributeId);
+    /**
+     * Records the value of a single-component uniform.
+     * 
+     * @param uniform
+     * @param value
+     * @return True if the value has changed.
+     */
+    private boolean updateValue(int uniform, int value) {
+        int index = uniform * MAX_UNIFORM_COMPONENTS;
+        if (uniformValuesKnown[uniform] && uniformValues[index] == value){
+            return false;
+        }
+        uniformValues[index] = value;
+        uniformValuesKnown[uniform] = true;
+        return true;
     }
 
-    public void disableVertexAttributeArray(int attributeId) {
-        GL20.glEnableVertexAttribArray(attributeId);
+    /**
+     * Records the value of a multi-component uniform.
+     * 
+     * @param uniform
+     * @param fb Buffer holding the value, from its current position.
+     * @param numComponents
+     * @return True if any component has changed.
+     */
+    private boolean updateValues(int uniform, FloatBuffer fb,
+            int numComponents) {
+        int index = uniform * MAX_UNIFORM_COMPONENTS;
+        boolean changed = !uniformValuesKnown[uniform];
+        for (int i = 0; i < numComponents; i++){
+            int value = Float.floatToRawIntBits(fb.get(fb.position() + i));
+            if (uniformValues[index + i] != value){
+                uniformValues[index + i] = value;
+                changed = true;
+            }
+        }
+        uniformValuesKnown[uniform] = true;
+        return changed;
     }
 
 }
@@ -8,34 +8,44 @@ public class Shaders {
 
     public static final String SHADER_DIR = Client.RESOURCE_DIR + "shaders/";
 
-    // Uniform variable names
-    public static final String UNIFORM_PROJECTION = "projection";
-    public static final String UNIFORM_MODELVIEW = "modelView";
-    public static final String UNIFORM_TEXUNIT = "texUnit";
-    public static final String UNIFORM_AMBIENT_COLOUR = "lightAmbientColour";
-    public static final String UNIFORM_AMBIENT_INTENSITY = "lightAmbientIntensity";
-    public static final String UNIFORM_DIFFUSE_COLOUR = "lightDiffuseColour";
-    public static final String UNIFORM_DIFFUSE_INTENSITY = "lightDiffuseIntensity";
-    public static final String UNIFORM_DIFFUSE_ANGLE = "lightDiffuseAngle";
-    public static final String UNIFORM_SELECTION_CODE = "selectionCode";
-    public static final String UNIFORM_SCALE = "scale";
+    // Uniform handles.
+    // Each ShaderProgram looks up the locations of the uniforms it uses when
+    // it is built, so setting a uniform is just an array access.
+    // Settings shared by the whole frame are held in a uniform block instead;
+    // see FrameUniforms.
+    public static final int UNIFORM_MODEL_POS = 0;
+    public static final int UNIFORM_TEXUNIT = 1;
+    public static final int UNIFORM_HEIGHT_MAP = 2;
+    public static final int UNIFORM_TILE_MAP = 3;
+    public static final int NUM_UNIFORMS = 4;
 
-    // Attribute IDs
+    // Uniform block binding points
+    public static final int BLOCK_FRAME = 0;
+
+    // Attribute IDs.
+    // All attributes are read from a single interleaved VBO; see VertexFormat.
     public static final int ATTR_VERTEX = 0;
-    public static final int ATTR_VERTEX_NORMAL = 1;
-    public static final int ATTR_MATERIAL_AMBIENT_COLOUR = 2;
-    public static final int ATTR_MATERIAL_DIFFUSE_COLOUR = 3;
     public static final int ATTR_TEXTURE_COORDS = 4;
-    public static final int ATTR_SELECTION_CODE = 5;
+    
+    // Per-instance attribute IDs.
+    // These are read from a separate VBO, once per TerrainSection drawn.
+    public static final int ATTR_SECTION = 6;
+    
+    // These are read from a separate VBO, once per BillboardModel drawn.
+    public static final int ATTR_BILLBOARD = 7;
+    public static final int ATTR_BILLBOARD_FRAME = 8;
     
     /**
      * Screen Shader.
      * 
      * Used for rendering the game as normal.
+     * 
+     * This uses its own fragment shader, which looks up the texture of each
+     * terrain tile from the tile map.
      */
     public static ShaderProgram screenShader;
     private static final String SHADER_SCREEN_VERT = "screen.vert";
-    private static final String SHADER_SCREEN_FRAG = "screen.frag";
+    private static final String SHADER_SCREEN_FRAG = "terrain.frag";
 
     /**
      * Object Selection Shader.
@@ -43,7 +53,8 @@ public class Shaders {
      * Used for rendering the game for object selection.
      * 
      * Each object is given a unique colour code, and rendered as a solid block
-     * of colour. This allows us to read the colour at the mouse co-ordinates
+     * of colour. For terrain, the code is derived from the position of each
+     * TerrainSection. This allows us to read the colour at the mouse co-ordinates
      * in order to determine the object that was clicked on.
      */
     public static ShaderProgram objSelectionShader;
@@ -55,8 +66,8 @@ public class Shaders {
      * 
      * Used for rendering the game for face selection.
      * 
-     * This is like the object selection shader, but it uses a VBO to give each
-     * face a different colour.
+     * This is like the object selection shader, but it gives each face a
+     * different colour, derived from the tile containing each fragment.
      */
     public static ShaderProgram faceSelectionShader;
     private static final String SHADER_FACE_SELECTION_VERT = "face_selection.vert";
@@ -94,66 +105,57 @@ public class Shaders {
         screenShader = new ShaderProgram.Builder()
                 .createProgram(SHADER_SCREEN_VERT, SHADER_SCREEN_FRAG)
                 .addAttribute(ATTR_VERTEX, "vertex")
-                .addAttribute(ATTR_VERTEX_NORMAL, "vertexNormal")
-                .addAttribute(ATTR_MATERIAL_AMBIENT_COLOUR, "materialAmbientColour")
-                .addAttribute(ATTR_MATERIAL_DIFFUSE_COLOUR, "materialDiffuseColour")
-                .addAttribute(ATTR_TEXTURE_COORDS, "texCoord")
+                .addAttribute(ATTR_SECTION, "section")
                 .linkAndValidate()
-                .addUniform(UNIFORM_PROJECTION, "projection")
-                .addUniform(UNIFORM_MODELVIEW, "modelView")
+                .addUniformBlock(BLOCK_FRAME, "Frame")
+                .addUniform(UNIFORM_MODEL_POS, "modelPos")
                 .addUniform(UNIFORM_TEXUNIT, "texUnit")
-                .addUniform(UNIFORM_AMBIENT_COLOUR, "lightAmbientColour")
-                .addUniform(UNIFORM_AMBIENT_INTENSITY, "lightAmbientIntensity")
-                .addUniform(UNIFORM_DIFFUSE_COLOUR, "lightDiffuseColour")
-                .addUniform(UNIFORM_DIFFUSE_ANGLE, "lightDiffuseAngle")
-                .addUniform(UNIFORM_DIFFUSE_INTENSITY, "lightDiffuseIntensity")
+                .addUniform(UNIFORM_HEIGHT_MAP, "heightMap")
+                .addUniform(UNIFORM_TILE_MAP, "tileMap")
                 .errorCheck()
                 .build();
 
         objSelectionShader = new ShaderProgram.Builder()
                 .createProgram(SHADER_OBJ_SELECTION_VERT, SHADER_OBJ_SELECTION_FRAG)
                 .addAttribute(ATTR_VERTEX, "vertex")
+                .addAttribute(ATTR_SECTION, "section")
                 .linkAndValidate()
-                .addUniform(UNIFORM_PROJECTION, "projection")
-                .addUniform(UNIFORM_MODELVIEW, "modelView")
-                .addUniform(UNIFORM_SELECTION_CODE, "selectionCode")
+                .addUniformBlock(BLOCK_FRAME, "Frame")
+                .addUniform(UNIFORM_MODEL_POS, "modelPos")
+                .addUniform(UNIFORM_HEIGHT_MAP, "heightMap")
                 .errorCheck()
                 .build();
 
         faceSelectionShader = new ShaderProgram.Builder()
                 .createProgram(SHADER_FACE_SELECTION_VERT, SHADER_FACE_SELECTION_FRAG)
                 .addAttribute(ATTR_VERTEX, "vertex")
-                .addAttribute(ATTR_SELECTION_CODE, "selectionCode")
+                .addAttribute(ATTR_SECTION, "section")
                 .linkAndValidate()
-                .addUniform(UNIFORM_PROJECTION, "projection")
-                .addUniform(UNIFORM_MODELVIEW, "modelView")
+                .addUniformBlock(BLOCK_FRAME, "Frame")
+                .addUniform(UNIFORM_MODEL_POS, "modelPos")
+                .addUniform(UNIFORM_HEIGHT_MAP, "heightMap")
                 .errorCheck()
                 .build();
 
         billboardShader = new ShaderProgram.Builder()
                 .createProgram(SHADER_BILLBOARD_VERT, SHADER_BILLBOARD_FRAG)
                 .addAttribute(ATTR_VERTEX, "vertex")
+                .addAttribute(ATTR_BILLBOARD, "billboard")
+                .addAttribute(ATTR_BILLBOARD_FRAME, "billboardFrame")
                 .linkAndValidate()
-                .addUniform(UNIFORM_PROJECTION, "projection")
-                .addUniform(UNIFORM_MODELVIEW, "modelView")
+                .addUniformBlock(BLOCK_FRAME, "Frame")
                 .addUniform(UNIFORM_TEXUNIT, "texUnit")
-                .addUniform(UNIFORM_AMBIENT_COLOUR, "lightAmbientColour")
-                .addUniform(UNIFORM_AMBIENT_INTENSITY, "lightAmbientIntensity")
-                .addUniform(UNIFORM_DIFFUSE_COLOUR, "lightDiffuseColour")
-                .addUniform(UNIFORM_DIFFUSE_INTENSITY, "lightDiffuseIntensity")
-                .addUniform(UNIFORM_SCALE, "scale")
                 .errorCheck()
                 .build();
 
         billboardSelectionShader = new ShaderProgram.Builder()
                 .createProgram(SHADER_BILLBOARD_SELECTION_VERT, SHADER_BILLBOARD_SELECTION_FRAG)
                 .addAttribute(ATTR_VERTEX, "vertex")
+                .addAttribute(ATTR_BILLBOARD, "billboard")
+                .addAttribute(ATTR_BILLBOARD_FRAME, "billboardFrame")
                 .linkAndValidate()
-                .addUniform(UNIFORM_PROJECTION, "projection")
-                .addUniform(UNIFORM_MODELVIEW, "modelView")
+                .addUniformBlock(BLOCK_FRAME, "Frame")
                 .addUniform(UNIFORM_TEXUNIT, "texUnit")
-                .addUniform(UNIFORM_SELECTION_CODE, "selectionCode")
-                .addUniform(UNIFORM_SCALE, "scale")
                 .errorCheck()
                 .build();
     }
@@ -0,0 +1,109 @@
+package com.danjb.otherdom.client.render;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * Pool of direct buffers used to stage data before it is sent to the GPU.
+ *
+ * Direct buffers live in native memory, which is only freed when the buffer
+ * is garbage-collected, so allocating a new one for every upload (or keeping
+ * one per model) wastes a lot of memory. Instead, staging buffers are
+ * borrowed from this pool and returned as soon as the upload is complete.
+ *
+ * Buffers are grouped by capacity, which is always a power of 2, so that a
+ * returned buffer can be reused for any request of a similar size.
+ */
+public class StagingBufferPool {
+
+    /**
+     * Smallest buffer capacity, as a power of 2 (i.e. 256 bytes).
+     */
+    private static final int MIN_CAPACITY_BITS = 8;
+
+    /**
+     * Largest buffer capacity that can be pooled, as a power of 2 (i.e.
+     * 16 MB).
+     */
+    private static final int MAX_CAPACITY_BITS = 24;
+
+    /**
+     * Maximum number of spare buffers kept of each capacity.
+     */
+    private static final int MAX_BUFFERS_PER_CAPACITY = 4;
+
+    /**
+     * Spare buffers, indexed by the power of 2 of their capacity (minus
+     * MIN_CAPACITY_BITS).
+     */
+    private static final List<Deque<ByteBuffer>> spareBuffers =
+            new ArrayList<>();
+    static {
+        for (int i = MIN_CAPACITY_BITS; i <= MAX_CAPACITY_BITS; i++){
+            spareBuffers.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Borrows a buffer with room for at least the given number of bytes.
+     *
+     * The buffer is cleared, and its limit is set to the requested size.
+     * It should be returned using release() once it is no longer needed.
+     *
+     * @param numBytes
+     * @return
+     */
+    public static synchronized ByteBuffer acquire(int numBytes) {
+
+        int bits = getCapacityBits(numBytes);
+        ByteBuffer buffer = null;
+
+        if (bits <= MAX_CAPACITY_BITS){
+            buffer = spareBuffers.get(bits - MIN_CAPACITY_BITS).poll();
+        }
+        if (buffer == null){
+            buffer = BufferUtils.createByteBuffer(1 << bits);
+        }
+
+        buffer.clear();
+        buffer.limit(numBytes);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * The buffer must not be used again after this is called.
+     *
+     * @param buffer
+     */
+    public static synchronized void release(ByteBuffer buffer) {
+        int bits = getCapacityBits(buffer.capacity());
+        if (bits > MAX_CAPACITY_BITS){
+            // Too big to keep around
+            return;
+        }
+        Deque<ByteBuffer> spares = spareBuffers.get(bits - MIN_CAPACITY_BITS);
+        if (spares.size() < MAX_BUFFERS_PER_CAPACITY){
+            spares.push(buffer);
+        }
+    }
+
+    /**
+     * Gets the power of 2 of the capacity used for a buffer of the given
+     * size.
+     *
+     * @param numBytes
+     * @return
+     */
+    private static int getCapacityBits(int numBytes) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(numBytes, 1) - 1);
+        return Math.max(bits, MIN_CAPACITY_BITS);
+    }
+
+}
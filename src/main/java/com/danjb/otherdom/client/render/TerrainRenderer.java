@@ -1,193 +1,477 @@
 package com.danjb.otherdom.client.render;
 
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Vector3d;
 import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
 
-import com.danjb.otherdom.client.GLWindow;
 import com.danjb.otherdom.client.scene.Camera;
-import com.danjb.otherdom.client.scene.LightSettings;
 import com.danjb.otherdom.client.scene.Player;
 import com.danjb.otherdom.client.scene.Scene;
 import com.danjb.otherdom.client.scene.TerrainSection;
+import com.danjb.otherdom.client.scene.TerrainTextureArena;
 import com.danjb.otherdom.client.scene.World;
 
-public class TerrainRenderer extends Renderer {
+public class TerrainRenderer extends Renderer
+        implements RenderQueue.ItemRenderer {
 
     /**
-     * The number of visible TerrainSections surrounding the current section.
+     * Distance from the camera, in metres, beyond which TerrainSections are
+     * drawn at a lower level of detail.
+     * 
+     * This distance doubles for each subsequent level of detail.
      */
-    private static final int NUM_VISIBLE_SURROUNDING_SECTIONS = 1;
+    private static final float LOD_BASE_DISTANCE = 32;
 
-    private GLWindow window;
+    /**
+     * Texture unit used for the height map of each TerrainSection.
+     */
+    private static final int HEIGHT_MAP_TEXTURE_UNIT = 1;
+
+    /**
+     * Texture unit used for the tile map of each TerrainSection.
+     */
+    private static final int TILE_MAP_TEXTURE_UNIT = 2;
+
+    /**
+     * Number of ints in the instance data of each TerrainSection.
+     */
+    private static final int INSTANCE_COMPONENTS = 3;
+
+    /**
+     * Number of bytes in the instance data of each TerrainSection.
+     */
+    private static final int INSTANCE_STRIDE =
+            INSTANCE_COMPONENTS * Integer.BYTES;
+
+    /**
+     * Camera and lighting settings for the current frame.
+     */
+    private FrameUniforms frameUniforms;
 
     private FloatBuffer fb3 = BufferUtils.createFloatBuffer(3);
-    private FloatBuffer fb16 = BufferUtils.createFloatBuffer(16);
     
-    private Matrix4f projection = new Matrix4f();
-    private Matrix4f modelView = new Matrix4f();
+    /**
+     * Combined projection and view matrix, used for culling.
+     */
+    private Matrix4f viewProjection = new Matrix4f();
+    
+    /**
+     * Position of the current TerrainSection relative to the camera.
+     */
+    private Vector3f relativePos = new Vector3f();
+    
+    private FrustumIntersection frustum = new FrustumIntersection();
+    
+    /*
+     * Working storage for collectVisibleSections(), kept between frames to
+     * avoid allocating new arrays.
+     */
+    private TerrainSection[] visibleSections = new TerrainSection[0];
+    private int[] visibleGroups = new int[0];
+    
+    /*
+     * TerrainSections are drawn in groups that share both a level of detail
+     * and a pair of texture arrays in the TerrainTextureArena. The group of
+     * a TerrainSection is (array * NUM_LOD_LEVELS + lod).
+     */
+    private int numGroups;
+    
+    /**
+     * Number of visible TerrainSections in each group.
+     */
+    private int[] groupCounts = new int[0];
+    
+    /**
+     * Index of the first instance in each group.
+     */
+    private int[] groupStarts = new int[0];
+    
+    /**
+     * Index of the next instance to write in each group.
+     */
+    private int[] groupNext = new int[0];
     
-    public TerrainRenderer(GLWindow window) {
-        this.window = window;
+    /**
+     * Instance data for each visible TerrainSection.
+     * 
+     * Each instance holds the offset of the TerrainSection from the player's
+     * section (x, z), and its layer within its texture arrays.
+     */
+    private IntBuffer instanceData = BufferUtils.createIntBuffer(0);
+    
+    /**
+     * ID of the VBO to which the instance data is sent each frame.
+     */
+    private int instanceVboId = -1;
+    
+    public TerrainRenderer(FrameUniforms frameUniforms) {
+        this.frameUniforms = frameUniforms;
     }
     
-    public void render(Scene scene, RenderMode mode) {
-
-        ShaderProgram shader = null;
-        if (mode == RenderMode.OBJ_SELECTION){
-            shader = Shaders.objSelectionShader;
-        } else if (mode == RenderMode.FACE_SELECTION){
-            shader = Shaders.faceSelectionShader;
-        } else {
-            shader = Shaders.screenShader;
-        }
-        shader.use();
+    /**
+     * Finds the visible TerrainSections, and adds them to the RenderQueue.
+     * 
+     * Every visible TerrainSection is drawn by a single item.
+     * 
+     * @param queue
+     * @param scene
+     * @param mode
+     */
+    public void submit(RenderQueue queue, Scene scene, RenderMode mode) {
         
         World world = scene.getWorld();
         Player player = world.getCurrentPlayer();
+        Camera camera = scene.getCamera();
         
-        for (int offsetY = -NUM_VISIBLE_SURROUNDING_SECTIONS; 
-                offsetY <= NUM_VISIBLE_SURROUNDING_SECTIONS; offsetY++){
-            for (int offsetX = -NUM_VISIBLE_SURROUNDING_SECTIONS; 
-                    offsetX <= NUM_VISIBLE_SURROUNDING_SECTIONS; offsetX++){
-                int sectionX = player.getSectionX() + offsetX;
-                int sectionZ = player.getSectionZ() + offsetY;
-                TerrainSection section = world.getSection(sectionX, sectionZ);
-                render(scene, mode, shader, section);
-            }
+        // Find the visible volume, so that we can skip any TerrainSections
+        // outside it. Like everything else, this is relative to the camera.
+        viewProjection.set(frameUniforms.getProjection())
+                .mul(frameUniforms.getView());
+        frustum.set(viewProjection);
+        
+        if (!collectVisibleSections(world, player, camera, mode)){
+            // Nothing to draw
+            return;
         }
         
-        shader.deselect();
+        // The terrain surrounds the camera, so we treat it as being as near
+        // as possible
+        queue.submit(RenderQueue.PASS_OPAQUE,
+                getShader(mode).getProgramId(),
+                TerrainSection.getSharedTexture().getId(),
+                TerrainSection.getMeshVaoId(),
+                0,
+                this,
+                null);
     }
-
-    private void render(Scene scene, RenderMode mode, ShaderProgram shader,
-            TerrainSection section) {
-
+    
+    /**
+     * Gets the ShaderProgram used to draw terrain in the given RenderMode.
+     * 
+     * @param mode
+     * @return
+     */
+    private static ShaderProgram getShader(RenderMode mode) {
+        if (mode == RenderMode.OBJ_SELECTION){
+            return Shaders.objSelectionShader;
+        } else if (mode == RenderMode.FACE_SELECTION){
+            return Shaders.faceSelectionShader;
+        }
+        return Shaders.screenShader;
+    }
+    
+    /**
+     * Draws the TerrainSections found by the last call to submit().
+     */
+    @Override
+    public void draw(Scene scene, RenderMode mode, Object item) {
+        
+        Player player = scene.getWorld().getCurrentPlayer();
         Camera camera = scene.getCamera();
-        LightSettings lighting = scene.getLightSettings();
-     
+        
+        ShaderProgram shader = getShader(mode);
+        shader.use();
+        
         /*
-         * Set the projection matrix.
-         * This specifies the properties of the camera.
+         * Set the position of the player's section relative to the camera.
+         * This is the only per-object setting; the camera and lighting are
+         * shared by the whole frame (see FrameUniforms).
+         * 
+         * Every TerrainSection is then positioned relative to the player's
+         * section by the vertex shader, using its instance data.
          */
-        projection.setPerspective(
-                camera.getFovY(),
-                window.getAspectRatio(), 
-                Camera.Z_NEAR,
-                Camera.Z_FAR);
-        shader.setUniformMatrix4f(
-                Shaders.UNIFORM_PROJECTION, projection.get(fb16));
+        camera.getRelativePos(
+                (double) player.getSectionX() * TerrainSection.WIDTH,
+                0,
+                (double) player.getSectionZ() * TerrainSection.WIDTH,
+                relativePos);
+        shader.setUniform3f(Shaders.UNIFORM_MODEL_POS, relativePos.get(fb3));
         
         /*
-         * Set the model-view matrix.
-         * The result of this is that all vertices in the game world are moved
-         * according to the camera position / orientation; the camera itself
-         * technically never moves in OpenGL:
-         * https://www.opengl.org/archives/resources/faq/technical/viewing.htm
+         * The height maps are bound to texture unit 1, since the terrain
+         * texture uses unit 0. This is needed in every render mode, since
+         * the height map determines the position of each vertex.
          */
-        modelView.setLookAt(
-                camera.getPos(),
-                camera.getTarget(),
-                camera.getUpVector());
-        modelView.translate(section.getPos());
-        shader.setUniformMatrix4f(
-                Shaders.UNIFORM_MODELVIEW, modelView.get(fb16));
+        shader.setUniform1i(Shaders.UNIFORM_HEIGHT_MAP,
+                HEIGHT_MAP_TEXTURE_UNIT);
         
         if (mode == RenderMode.NORMAL){
             // We needn't bother setting the texture in other render modes,
             // since terrain textures are always solid blocks.
-            section.getTexture().bind();
+            TerrainSection.getSharedTexture().bind();
             // Tell the shader to sample from texture unit 0.
             // This is the default anyway.
             shader.setUniform1i(Shaders.UNIFORM_TEXUNIT, 0);
-    
+            
+            // The tile maps determine which part of the texture to use
+            shader.setUniform1i(Shaders.UNIFORM_TILE_MAP,
+                    TILE_MAP_TEXTURE_UNIT);
+        }
+        
+        // Bind to the VAO that has all the information about the vertices.
+        // The VAO also remembers which vertex attributes are enabled.
+        GLState.bindVertexArray(TerrainSection.getMeshVaoId());
+
+        drawVisibleSections(mode);
+        
+        // Nothing is deselected afterwards; GLState skips any binding that
+        // is still in place next time
+    }
+
+    /**
+     * Finds every TerrainSection that could be visible, and fills the
+     * instance buffer with their data, grouped by texture array and level of
+     * detail.
+     * 
+     * This must be called after the frustum has been set for the current
+     * frame.
+     * 
+     * @param world
+     * @param player
+     * @param camera
+     * @param mode
+     * @return True if any TerrainSections are visible.
+     */
+    private boolean collectVisibleSections(World world, Player player,
+            Camera camera, RenderMode mode) {
+        
+        int radius = (int) Math.ceil(
+                camera.getViewDistance() / TerrainSection.WIDTH);
+        int maxSections = (2 * radius + 1) * (2 * radius + 1);
+        if (visibleSections.length < maxSections){
+            visibleSections = new TerrainSection[maxSections];
+            visibleGroups = new int[maxSections];
+            instanceData = BufferUtils.createIntBuffer(
+                    maxSections * INSTANCE_COMPONENTS);
+        }
+        
+        numGroups = TerrainTextureArena.getNumArrays()
+                * TerrainSection.NUM_LOD_LEVELS;
+        if (groupCounts.length < numGroups){
+            groupCounts = new int[numGroups];
+            groupStarts = new int[numGroups];
+            groupNext = new int[numGroups];
+        }
+        Arrays.fill(groupCounts, 0, numGroups, 0);
+        int numVisible = 0;
+        
+        for (int offsetY = -radius; offsetY <= radius; offsetY++){
+            for (int offsetX = -radius; offsetX <= radius; offsetX++){
+                int sectionX = player.getSectionX() + offsetX;
+                int sectionZ = player.getSectionZ() + offsetY;
+                TerrainSection section = world.getSection(sectionX, sectionZ);
+                if (section == null){
+                    // Still being built
+                    continue;
+                }
+                if (!isVisible(camera, section)){
+                    continue;
+                }
+                
+                /*
+                 * Determine the level of detail. In the selection modes we
+                 * always use the full level of detail, so that the correct
+                 * object / face is picked.
+                 */
+                int lod = 0;
+                if (mode == RenderMode.NORMAL){
+                    lod = getLod(camera, section);
+                }
+                
+                int array = TerrainTextureArena.getArrayIndex(
+                        section.getTextureLayer());
+                int group = array * TerrainSection.NUM_LOD_LEVELS + lod;
+                
+                visibleSections[numVisible] = section;
+                visibleGroups[numVisible] = group;
+                groupCounts[group]++;
+                numVisible++;
+            }
+        }
+        
+        // Find where each group starts within the instance buffer
+        int start = 0;
+        for (int group = 0; group < numGroups; group++){
+            groupStarts[group] = start;
+            start += groupCounts[group];
+        }
+        
+        // Write the instance data, sorted by group
+        instanceData.clear();
+        System.arraycopy(groupStarts, 0, groupNext, 0, numGroups);
+        for (int i = 0; i < numVisible; i++){
+            TerrainSection section = visibleSections[i];
+            int index = groupNext[visibleGroups[i]]++ * INSTANCE_COMPONENTS;
+            instanceData.put(index,
+                    section.getSectionX() - player.getSectionX());
+            instanceData.put(index + 1,
+                    section.getSectionZ() - player.getSectionZ());
+            instanceData.put(index + 2, TerrainTextureArena.getLayerInArray(
+                    section.getTextureLayer()));
+            
+            // Don't hold on to sections that might be unloaded
+            visibleSections[i] = null;
+        }
+        instanceData.position(0);
+        instanceData.limit(numVisible * INSTANCE_COMPONENTS);
+        
+        return numVisible > 0;
+    }
+
+    /**
+     * Draws the TerrainSections found by collectVisibleSections().
+     * 
+     * Every TerrainSection shares the same mesh and index buffer, and its
+     * textures are found in the TerrainTextureArena, so the only thing that
+     * differs between them is the instance data. This means that all the
+     * TerrainSections in each group (see numGroups) can be drawn with a
+     * single instanced draw call. Usually, the TerrainTextureArena has only
+     * one pair of arrays, so there is one draw call per level of detail.
+     * 
+     * The VAO of the shared mesh must be bound.
+     * 
+     * @param mode
+     */
+    private void drawVisibleSections(RenderMode mode) {
+        
+        if (instanceVboId == -1){
+            instanceVboId = GL15.glGenBuffers();
+            
+            // Advance through the instance data once per instance, rather
+            // than once per vertex. This is stored in the VAO, along with
+            // the enabled state, so it only needs to be set once.
+            GL33.glVertexAttribDivisor(Shaders.ATTR_SECTION, 1);
+            GL20.glEnableVertexAttribArray(Shaders.ATTR_SECTION);
+        }
+        
+        // Send the instance data, replacing last frame's
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceVboId);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, instanceData,
+                GL15.GL_STREAM_DRAW);
+        
+        for (int group = 0; group < numGroups; group++){
+            if (groupCounts[group] == 0){
+                continue;
+            }
+            int array = group / TerrainSection.NUM_LOD_LEVELS;
+            int lod = group % TerrainSection.NUM_LOD_LEVELS;
+            
+            // Bind the texture arrays holding this group's layers. GLState
+            // skips this for every group after the first that uses them.
+            GLState.bindTexture(HEIGHT_MAP_TEXTURE_UNIT,
+                    GL30.GL_TEXTURE_2D_ARRAY,
+                    TerrainTextureArena.getHeightMapsId(array));
+            if (mode == RenderMode.NORMAL){
+                GLState.bindTexture(TILE_MAP_TEXTURE_UNIT,
+                        GL30.GL_TEXTURE_2D_ARRAY,
+                        TerrainTextureArena.getTileMapsId(array));
+            }
+            
+            // Point the instance attribute at the first TerrainSection
+            // in this group
+            GL30.glVertexAttribIPointer(Shaders.ATTR_SECTION,
+                    INSTANCE_COMPONENTS, GL11.GL_INT, INSTANCE_STRIDE,
+                    (long) groupStarts[group] * INSTANCE_STRIDE);
+            
             /*
-             * Pass the lighting information to the shader.
-             * 
-             * To compute the diffuse component, we need:
-             *  - The vector from the vertex to the light source.
-             *  - The vertex normal.
-             *  - The diffuse component of the light (RGB).
-             *  - The diffuse component of the vertex (RGB).
-             *  
-             * The diffuse vector and diffuse component of the light are uniform
-             * variables, while the vertex normal and diffuse component of the
-             * vertex are per-vertex variables.
-             *  
-             * See:
-             * http://www.lighthouse3d.com/opengl/terrain/index.php?light
+             * Draw the vertices, using the index buffer bound to the VAO.
+             * We could mess around with GL_TRIANGLE_STRIPS and link rows using
+             * degenerate triangles, but it's much easier this way and the
+             * performance difference is little to none.
              */
-            shader.setUniform3f(Shaders.UNIFORM_AMBIENT_COLOUR, 
-                    lighting.getAmbientColour().get(fb3));
-            shader.setUniform1f(Shaders.UNIFORM_AMBIENT_INTENSITY, 
-                    lighting.getAmbientIntensity());
-            shader.setUniform3f(Shaders.UNIFORM_DIFFUSE_COLOUR, 
-                    lighting.getDiffuseColour().get(fb3));
-            shader.setUniform3f(Shaders.UNIFORM_DIFFUSE_ANGLE, 
-                    lighting.getDiffuseVector().get(fb3));
-            shader.setUniform1f(Shaders.UNIFORM_DIFFUSE_INTENSITY, 
-                    lighting.getDiffuseIntensity());
-            
-        } else if (mode == RenderMode.OBJ_SELECTION){
-            // Determine the selection code for the object being rendered
-            Player player = scene.getWorld().getCurrentPlayer();
-            Vector3f code = section.createSelectionCode(
-                    player.getSectionX(), player.getSectionZ());
-            shader.setUniform3f(Shaders.UNIFORM_SELECTION_CODE, code.get(fb3));
+            GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES,
+                    TerrainSection.getNumIndices(lod),
+                    GL11.GL_UNSIGNED_SHORT,
+                    TerrainSection.getIndexOffset(lod),
+                    groupCounts[group]);
         }
         
-        // Bind to the VAO that has all the information about the vertices
-        GL30.glBindVertexArray(section.getVaoId());
-        shader.enableVertexAttributeArray(
-                Shaders.ATTR_VERTEX);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+    }
 
-        if (mode == RenderMode.NORMAL){
-            shader.enableVertexAttributeArray(
-                    Shaders.ATTR_VERTEX_NORMAL);
-            shader.enableVertexAttributeArray(
-                    Shaders.ATTR_MATERIAL_AMBIENT_COLOUR);
-            shader.enableVertexAttributeArray(
-                    Shaders.ATTR_MATERIAL_DIFFUSE_COLOUR);
-            shader.enableVertexAttributeArray(
-                    Shaders.ATTR_TEXTURE_COORDS);
-        } else if (mode == RenderMode.FACE_SELECTION){
-            shader.enableVertexAttributeArray(
-                    Shaders.ATTR_SELECTION_CODE);
+    /**
+     * Determines whether any part of a TerrainSection could be visible.
+     * 
+     * TerrainSections beyond the view distance, or whose bounding box lies
+     * outside the camera's frustum, cannot be seen. This must be called
+     * after the frustum has been set for the current frame.
+     * 
+     * @param camera
+     * @param section
+     * @return
+     */
+    private boolean isVisible(Camera camera, TerrainSection section) {
+        
+        if (getDistance(camera, section) > camera.getViewDistance()){
+            return false;
         }
+        
+        Vector3f sectionPos = camera.getRelativePos(
+                section.getPos(), relativePos);
+        return frustum.testAab(
+                sectionPos.x,
+                sectionPos.y + section.getMinHeight(),
+                sectionPos.z,
+                sectionPos.x + TerrainSection.WIDTH,
+                sectionPos.y + section.getMaxHeight(),
+                sectionPos.z + TerrainSection.WIDTH);
+    }
 
-        /*
-         * Draw the vertices.
-         * We could mess around with GL_TRIANGLE_STRIPS and link rows using
-         * degenerate triangles, but it's much easier this way and the
-         * performance difference is little to none.
-         */
-        GL11.glDrawArrays(
-                GL11.GL_TRIANGLES, 0, TerrainSection.NUM_VERTICES);
+    /**
+     * Gets the horizontal distance from the camera to the nearest point of
+     * a TerrainSection.
+     * 
+     * @param camera
+     * @param section
+     * @return
+     */
+    private float getDistance(Camera camera, TerrainSection section) {
+        
+        Vector3d cameraPos = camera.getPos();
+        Vector3d sectionPos = section.getPos();
+        
+        // Find the nearest point of the section to the camera
+        double nearestX = Math.max(sectionPos.x,
+                Math.min(cameraPos.x, sectionPos.x + TerrainSection.WIDTH));
+        double nearestZ = Math.max(sectionPos.z,
+                Math.min(cameraPos.z, sectionPos.z + TerrainSection.WIDTH));
+        double dx = cameraPos.x - nearestX;
+        double dz = cameraPos.z - nearestZ;
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
 
-        // Put everything back to default (deselect)
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-        shader.disableVertexAttributeArray(
-                Shaders.ATTR_VERTEX);
+    /**
+     * Determines the level of detail at which to draw a TerrainSection,
+     * based on the horizontal distance from the camera to the nearest point
+     * of the section.
+     * 
+     * @param camera
+     * @param section
+     * @return
+     */
+    private int getLod(Camera camera, TerrainSection section) {
+        
+        float dist = getDistance(camera, section);
 
-        if (mode == RenderMode.NORMAL){
-            shader.disableVertexAttributeArray(
-                    Shaders.ATTR_VERTEX_NORMAL);
-            shader.disableVertexAttributeArray(
-                    Shaders.ATTR_MATERIAL_AMBIENT_COLOUR);
-            shader.disableVertexAttributeArray(
-                    Shaders.ATTR_MATERIAL_DIFFUSE_COLOUR);
-            shader.disableVertexAttributeArray(
-                    Shaders.ATTR_TEXTURE_COORDS);
-        } else if (mode == RenderMode.FACE_SELECTION){
-            shader.disableVertexAttributeArray(
-                    Shaders.ATTR_SELECTION_CODE);
+        int lod = 0;
+        float lodDist = LOD_BASE_DISTANCE;
+        while (dist > lodDist && lod < TerrainSection.NUM_LOD_LEVELS - 1){
+            lod++;
+            lodDist *= 2;
         }
-        
-        GL30.glBindVertexArray(0);
+        return lod;
     }
 
 }
@@ -0,0 +1,184 @@
+package com.danjb.otherdom.client.render;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Defines the packed, interleaved layouts of our vertex data.
+ *
+ * All the properties of a vertex are stored next to each other in a single
+ * VBO, using compact data types where full floats are not required. Each
+ * mesh only stores the attributes its shaders read, so there are 2 layouts:
+ *
+ *   UNTEXTURED (the shared terrain mesh)
+ *
+ *   Offset  Attribute        Type                           Size
+ *   ------------------------------------------------------------
+ *    0      Position         3 x short (fixed-point)        6
+ *    6      (Unused)                                        2
+ *   ------------------------------------------------------------
+ *                                                           8
+ *
+ *   TEXTURED (the quad shared by BillboardModels)
+ *
+ *   Offset  Attribute        Type                           Size
+ *   ------------------------------------------------------------
+ *    0      Position         3 x short (fixed-point)        6
+ *    6      (Unused)                                        2
+ *    8      Texture co-ords  2 x half float                 4
+ *   ------------------------------------------------------------
+ *                                                           12
+ *
+ * Positions are relative to the model's origin, in units of
+ * 1 / POSITION_SCALE metres. The shaders divide by this same value.
+ *
+ * The 2 bytes after the position are unused, so that every attribute
+ * starts on a 4-byte boundary.
+ */
+public class VertexFormat {
+
+    /**
+     * Layout holding only the position of each vertex.
+     */
+    public static final VertexFormat UNTEXTURED = new VertexFormat(false);
+
+    /**
+     * Layout holding the position and texture co-ordinates of each vertex.
+     */
+    public static final VertexFormat TEXTURED = new VertexFormat(true);
+
+    /*
+     * Byte offsets of each attribute within a vertex.
+     */
+    private static final int OFFSET_POSITION = 0;
+    private static final int OFFSET_TEX_COORDS = 8;
+
+    /**
+     * Number of position units per metre.
+     *
+     * This gives a precision of ~4mm, and a range of +/- 128m from the
+     * model's origin. Must match the value used in the vertex shaders.
+     */
+    public static final float POSITION_SCALE = 256.0f;
+
+    /**
+     * Whether each vertex has texture co-ordinates.
+     */
+    private boolean hasTexCoords;
+
+    /**
+     * Number of bytes used by each vertex.
+     */
+    private int stride;
+
+    private VertexFormat(boolean hasTexCoords) {
+        this.hasTexCoords = hasTexCoords;
+        stride = hasTexCoords ? 12 : 8;
+    }
+
+    /**
+     * Points the vertex attributes at the currently-bound VBO, which is
+     * expected to contain vertices in this format, and enables them.
+     *
+     * This should be called while the VAO of the model is bound. The VAO
+     * remembers which attributes are enabled, so renderers need not enable
+     * them again before drawing.
+     */
+    public void setupAttributes() {
+        GL20.glVertexAttribPointer(Shaders.ATTR_VERTEX,
+                3, GL11.GL_SHORT, false, stride, OFFSET_POSITION);
+        GL20.glEnableVertexAttribArray(Shaders.ATTR_VERTEX);
+
+        if (hasTexCoords){
+            GL20.glVertexAttribPointer(Shaders.ATTR_TEXTURE_COORDS,
+                    2, GL30.GL_HALF_FLOAT, false, stride, OFFSET_TEX_COORDS);
+            GL20.glEnableVertexAttribArray(Shaders.ATTR_TEXTURE_COORDS);
+        }
+    }
+
+    /**
+     * Sets the position of the vertex at the given index.
+     *
+     * @param buffer
+     * @param vertex
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void putPosition(ByteBuffer buffer, int vertex,
+            float x, float y, float z) {
+        int offset = vertex * stride + OFFSET_POSITION;
+        buffer.putShort(offset,     toFixedPoint(x));
+        buffer.putShort(offset + 2, toFixedPoint(y));
+        buffer.putShort(offset + 4, toFixedPoint(z));
+    }
+
+    /**
+     * Sets the texture co-ordinates of the vertex at the given index.
+     *
+     * @param buffer
+     * @param vertex
+     * @param s
+     * @param t
+     */
+    public void putTexCoords(ByteBuffer buffer, int vertex,
+            float s, float t) {
+        if (!hasTexCoords){
+            throw new IllegalStateException(
+                    "VertexFormat has no texture co-ordinates");
+        }
+        int offset = vertex * stride + OFFSET_TEX_COORDS;
+        buffer.putShort(offset,     toHalfFloat(s));
+        buffer.putShort(offset + 2, toHalfFloat(t));
+    }
+
+    /**
+     * Gets the number of bytes used by each vertex.
+     *
+     * @return
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    private static short toFixedPoint(float val) {
+        return (short) Math.round(val * POSITION_SCALE);
+    }
+
+    /**
+     * Converts a float to a 16-bit IEEE 754 half-precision float.
+     *
+     * Values too small to be represented are flushed to zero, and values too
+     * large are clamped to infinity; neither should occur for texture
+     * co-ordinates.
+     *
+     * @param val
+     * @return
+     */
+    public static short toHalfFloat(float val) {
+        int bits = Float.floatToIntBits(val);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+
+        if (exponent <= 0){
+            // Too small; flush to zero
+            return (short) sign;
+        }
+        if (exponent >= 0x1F){
+            // Too large; clamp to infinity
+            return (short) (sign | 0x7C00);
+        }
+
+        // Round to the nearest 10-bit mantissa
+        int half = sign | (exponent << 10) | (mantissa >> 13);
+        if ((mantissa & 0x1000) != 0){
+            half++;
+        }
+        return (short) half;
+    }
+
+}
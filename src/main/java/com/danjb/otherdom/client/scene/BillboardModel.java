@@ -1,16 +1,13 @@
 package com.danjb.otherdom.client.scene;
 
-import java.nio.FloatBuffer;
-
-import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
-import org.lwjgl.opengl.GL11;
+import org.joml.Vector3d;
 import org.lwjgl.opengl.GL15;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
 import com.danjb.otherdom.client.Texture;
-import com.danjb.otherdom.client.render.Shaders;
+import com.danjb.otherdom.client.render.GLState;
+import com.danjb.otherdom.client.render.MeshBuilder;
+import com.danjb.otherdom.client.render.VertexFormat;
 import com.danjb.otherdom.client.scene.World.CompassDirection;
 
 /**
@@ -20,6 +17,12 @@ import com.danjb.otherdom.client.scene.World.CompassDirection;
  * transforms the vertices in such a way that the model always appears to be
  * facing the camera.
  * 
+ * Every BillboardModel is drawn from the same quad, so the only things that
+ * differ between them are their position, scale, texture frame and
+ * selection code. BillboardModelRenderer passes these as instance data,
+ * which allows all the BillboardModels sharing a texture to be drawn
+ * together.
+ * 
  * See:
  * https://en.wikibooks.org/wiki/GLSL_Programming/Unity/Billboards
  * 
@@ -57,31 +60,19 @@ public class BillboardModel extends WorldModel {
     private Camera camera;
     
     /**
-     * Buffer used to store vertex positions (x, y, z).
-     */
-    private FloatBuffer vertexBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
-    
-    /**
-     * Buffer used to store vertex texture co-ordinates (s, t).
-     */
-    private FloatBuffer texCoordBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 2);
-
-    /**
-     * ID of the VBO that holds the position of each vertex.
+     * Selection code that identifies the "type" of object being clicked on.
      */
-    private int vboIdPositions;
+    private float selectionCode;
 
     /**
-     * ID of the VBO that holds the texture co-ordinates of each vertex.
+     * ID of the VBO that holds the quad shared by every BillboardModel.
      */
-    private int vboIdTexCoords = -1;
+    private static int quadVboId = -1;
 
     /**
-     * Selection code that identifies the "type" of object being clicked on.
+     * ID of the VAO used to draw every BillboardModel.
      */
-    private float selectionCode;
+    private static int quadVaoId = -1;
 
     /**
      * Creates a BillboardModel.
@@ -92,17 +83,33 @@ public class BillboardModel extends WorldModel {
      * @param camera
      * @param selectionCode Constant from MousePicker.
      */
-    public BillboardModel(float x, float z, Texture texture, float scale, 
+    public BillboardModel(double x, double z, Texture texture, float scale, 
             Camera camera, float selectionCode) {
         
         // For now, assume that BillboardModels are always standing at sea level.
         // Later, we will calculate the z-position based on the floor height.
-        super(new Vector3f(x, 0.5f * scale, z), texture);
+        super(new Vector3d(x, 0.5f * scale, z), texture);
         
         this.scale = scale;
         this.camera = camera;
         this.selectionCode = selectionCode;
         
+        // Create the shared quad, if it does not already exist
+        if (quadVaoId == -1){
+            createQuad();
+        }
+        vaoId = quadVaoId;
+
+        refreshTexture();
+    }
+
+    /**
+     * Creates the quad shared by every BillboardModel, and its VAO.
+     */
+    private static void createQuad() {
+
+        MeshBuilder mesh = new MeshBuilder(VertexFormat.TEXTURED, NUM_VERTICES);
+
         /*
          * The positions of the vertices in a BillboardModel are not literal
          * positions in 3d space. Instead, they are just used by the vertex
@@ -111,47 +118,46 @@ public class BillboardModel extends WorldModel {
          */
         
         // 1st triangle, with vertices defined in a counter-clockwise order
-        createVertex(-0.5f, 0,  0.5f);
-        createVertex(-0.5f, 0, -0.5f);
-        createVertex( 0.5f, 0,  0.5f);
+        createVertex(mesh, 0, -0.5f, 0,  0.5f);
+        createVertex(mesh, 1, -0.5f, 0, -0.5f);
+        createVertex(mesh, 2,  0.5f, 0,  0.5f);
+        setVertexTexture(mesh, 0, 0, 1);
+        setVertexTexture(mesh, 1, 0, 0);
+        setVertexTexture(mesh, 2, 1, 1);
 
         // 2nd triangle, with vertices defined in a counter-clockwise order
-        createVertex( 0.5f, 0,  0.5f);
-        createVertex(-0.5f, 0, -0.5f);
-        createVertex( 0.5f, 0, -0.5f);
-        
-        // Prepare buffer for reading
-        vertexBuffer.flip();
-        
+        createVertex(mesh, 3,  0.5f, 0,  0.5f);
+        createVertex(mesh, 4, -0.5f, 0, -0.5f);
+        createVertex(mesh, 5,  0.5f, 0, -0.5f);
+        setVertexTexture(mesh, 3, 1, 1);
+        setVertexTexture(mesh, 4, 0, 0);
+        setVertexTexture(mesh, 5, 1, 0);
+
         // Create VAO and select (bind to) it
-        vaoId = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vaoId);
+        quadVaoId = GL30.glGenVertexArrays();
+        GLState.bindVertexArray(quadVaoId);
 
-        // Create VBO and fill it with vertex positions
-        vboIdPositions = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdPositions);
-        GL15.glBufferData(
-                GL15.GL_ARRAY_BUFFER, vertexBuffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_VERTEX,
-                3, GL11.GL_FLOAT, false, 0, 0);
+        // Create VBO and fill it with vertex data
+        quadVboId = mesh.createVbo(GL15.GL_STATIC_DRAW);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, quadVboId);
+        VertexFormat.TEXTURED.setupAttributes();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
 
         // Deselect the VAO once we're done setting vertex attribute data
-        GL30.glBindVertexArray(0);
-
-        refreshTexture();
+        GLState.bindVertexArray(0);
     }
 
     /**
      * Creates a vertex at the given position.
+     * @param mesh
+     * @param index
      * @param x
      * @param y
      * @param z
      */
-    private void createVertex(float x, float y, float z) {
-        vertexBuffer.put(x);
-        vertexBuffer.put(y);
-        vertexBuffer.put(z);
+    private static void createVertex(MeshBuilder mesh, int index,
+            float x, float y, float z) {
+        mesh.putPosition(index, x, y, z);
     }
     
     @Override
@@ -208,58 +214,63 @@ public class BillboardModel extends WorldModel {
         if (imageId < 0){
             imageId += World.NUM_COMPASS_DIRECTIONS;
         }
-        textureFrame = imageId;
         
-        // 1st triangle, with vertices defined in a counter-clockwise order
-        setVertexTexture(0, 1);
-        setVertexTexture(0, 0);
-        setVertexTexture(1, 1);
-
-        // 2nd triangle, with vertices defined in a counter-clockwise order
-        setVertexTexture(1, 1);
-        setVertexTexture(0, 0);
-        setVertexTexture(1, 0);
-
-        // Prepare buffer for reading
-        texCoordBuffer.flip();
-        
-        // Send tex coords to GPU
-        GL30.glBindVertexArray(vaoId); // Bind to VAO
-        // Create VBO and fill it with vertex texture co-ordinates
-        if (vboIdTexCoords == -1){
-            vboIdTexCoords = GL15.glGenBuffers();
-        }
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdTexCoords);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, texCoordBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_TEXTURE_COORDS,
-                2, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
-        GL30.glBindVertexArray(0); // Deselect VAO
+        // The shader selects the frame using the instance data, so there is
+        // nothing to send to the GPU here
+        textureFrame = imageId;
     }
 
     /**
-     * Sets the texture of the given vertex.
+     * Sets the texture of the given vertex, within the first frame of the
+     * texture.
+     * 
+     * The vertex shader moves this to the frame of each BillboardModel.
+     * 
+     * @param mesh
+     * @param index
      * @param offsetX 0 = left, 1 = right
      * @param offsetY 0 = top, 1 = bottom
      */
-    private void setVertexTexture(float offsetX, float offsetY) {
-        float texCoordX = (textureFrame + offsetX) * TEX_FRAME_WIDTH;
+    private static void setVertexTexture(MeshBuilder mesh, int index,
+            float offsetX, float offsetY) {
+        float texCoordX = offsetX * TEX_FRAME_WIDTH;
         // Not sure why, but the texture is upside-down unless we substract
         // from 1.
         float texCoordY = 1 - (offsetY * 1.0f);
-        texCoordBuffer.put(texCoordX);
-        texCoordBuffer.put(texCoordY);
+        mesh.putTexCoords(index, texCoordX, texCoordY);
     }
     
     public float getScale() {
         return scale;
     }
 
-    public Vector3f getSelectionCode() {
-        // We divide by 255 because our shader expects our colours to be
-        // floats in the range 0-1.
-        return new Vector3f(selectionCode / 255.0f, 1.0f, 1.0f);
+    /**
+     * Gets the ID of the VAO used to draw every BillboardModel.
+     * 
+     * @return
+     */
+    public static int getQuadVaoId() {
+        return quadVaoId;
+    }
+
+    /**
+     * Gets the frame of the texture to draw, based on the camera angle.
+     * 
+     * @return
+     */
+    public int getTextureFrame() {
+        return textureFrame;
+    }
+
+    /**
+     * Gets the selection code that identifies the "type" of object.
+     * 
+     * The shader converts this to a colour.
+     * 
+     * @return
+     */
+    public float getSelectionCode() {
+        return selectionCode;
     }
 
 }
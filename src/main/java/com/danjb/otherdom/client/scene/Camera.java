@@ -2,6 +2,8 @@ package com.danjb.otherdom.client.scene;
 
 import java.awt.Toolkit;
 
+import org.joml.Matrix4f;
+import org.joml.Vector3d;
 import org.joml.Vector3f;
 
 import com.danjb.otherdom.client.GLWindow;
@@ -19,6 +21,13 @@ import com.danjb.otherdom.client.scene.World.CompassDirection;
  * we can rely on the lookAt() function provided by JOML, which requires only
  * the camera position, target position and up vector.
  * 
+ * Positions in the world are stored as doubles, but the GPU works in floats,
+ * which lose precision far from the origin. Therefore, everything is drawn
+ * relative to the camera: the view matrix places the camera at the origin,
+ * and each model is translated by its offset from the camera, which is
+ * calculated in double precision (see getRelativePos()). The values sent to
+ * the GPU thus stay small however far the camera travels.
+ * 
  * @author Dan Bryce
  */
 public class Camera {
@@ -44,10 +53,24 @@ public class Camera {
     public static final float Z_NEAR = 0.01f;
 
     /**
-     * Far clipping distance, in metres.
-     * Anything further from the camera than this will not be drawn.
+     * Default view distance, in metres.
+     */
+    public static final float DEFAULT_VIEW_DISTANCE =
+            2 * TerrainSection.WIDTH;
+
+    /**
+     * Shortest permitted view distance, in metres.
+     */
+    public static final float MIN_VIEW_DISTANCE = TerrainSection.WIDTH;
+
+    /**
+     * Longest permitted view distance, in metres.
+     * 
+     * The selection code of a TerrainSection can only identify sections up to
+     * 127 sections from the player (see obj_selection.vert), so nothing
+     * further than this can be drawn.
      */
-    public static final float Z_FAR = 1000.0f;
+    public static final float MAX_VIEW_DISTANCE = 127 * TerrainSection.WIDTH;
 
     /**
      * Height of the camera, in metres.
@@ -73,12 +96,12 @@ public class Camera {
     /**
      * Position of the camera, in metres.
      */
-    private Vector3f position = new Vector3f();
+    private Vector3d position = new Vector3d();
 
     /**
      * Position of the target point, in metres.
      */
-    private Vector3f target = new Vector3f();
+    private Vector3d target = new Vector3d();
 
     /**
      * "Up" vector that defines which way is up.
@@ -94,6 +117,13 @@ public class Camera {
      * Radius of the camera's orbit around the target, in metres.
      */
     private float orbitRadius = DEFAULT_ORBIT_RADIUS;
+
+    /**
+     * Distance from the camera beyond which nothing is drawn, in metres.
+     * 
+     * This is also the far clipping distance.
+     */
+    private float viewDistance = DEFAULT_VIEW_DISTANCE;
     
     /**
      * The current facing of the camera, in degrees.
@@ -173,18 +203,70 @@ public class Camera {
      */
     private void recalculateOrbitPosition() {
         float angleRad = (float) Math.toRadians(angle);
-        position.x = (float) (target.x - orbitRadius * Math.cos(angleRad));
-        position.z = (float) (target.z - orbitRadius * Math.sin(angleRad));
+        position.x = target.x - orbitRadius * Math.cos(angleRad);
+        position.z = target.z - orbitRadius * Math.sin(angleRad);
     }
 
-    public Vector3f getPos(){
+    public Vector3d getPos(){
         return position;
     }
     
-    public Vector3f getTarget() {
+    public Vector3d getTarget() {
         return target;
     }
 
+    /**
+     * Sets the given matrix to the view matrix, with the camera at the
+     * origin.
+     * 
+     * Anything drawn using this matrix must first be translated by its
+     * position relative to the camera (see getRelativePos()).
+     * 
+     * @param dest
+     * @return dest
+     */
+    public Matrix4f getRelativeView(Matrix4f dest) {
+        return dest.setLookAt(
+                0, 0, 0,
+                (float) (target.x - position.x),
+                (float) (target.y - position.y),
+                (float) (target.z - position.z),
+                up.x, up.y, up.z);
+    }
+
+    /**
+     * Gets the position of a point relative to the camera.
+     * 
+     * The subtraction is performed in double precision, so the result is
+     * accurate for any point near the camera, however far both are from the
+     * world origin.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param dest
+     * @return dest
+     */
+    public Vector3f getRelativePos(double x, double y, double z,
+            Vector3f dest) {
+        return dest.set(
+                (float) (x - position.x),
+                (float) (y - position.y),
+                (float) (z - position.z));
+    }
+
+    /**
+     * Gets the position of a point relative to the camera.
+     * 
+     * @param pos
+     * @param dest
+     * @return dest
+     * @see #getRelativePos(double, double, double, Vector3f)
+     */
+    public Vector3f getRelativePos(Vector3d pos, Vector3f dest) {
+        return getRelativePos(pos.x, pos.y, pos.z, dest);
+    }
+
     public Vector3f getUpVector() {
         return up;
     }
@@ -192,6 +274,24 @@ public class Camera {
     public float getFovY() {
         return fovY;
     }
+
+    /**
+     * Sets the distance from the camera beyond which nothing is drawn.
+     * 
+     * Scene.setViewDistance() should usually be used instead, so that the
+     * terrain is loaded as far as it can be seen.
+     * 
+     * @param viewDistance View distance in metres; this is clamped to the
+     * range MIN_VIEW_DISTANCE to MAX_VIEW_DISTANCE.
+     */
+    public void setViewDistance(float viewDistance) {
+        this.viewDistance = Math.max(MIN_VIEW_DISTANCE,
+                Math.min(viewDistance, MAX_VIEW_DISTANCE));
+    }
+
+    public float getViewDistance() {
+        return viewDistance;
+    }
     
     public float getAngle() {
         return angle;
@@ -0,0 +1,61 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * Rectangular region of a grid that has changed since it was last sent to
+ * the GPU.
+ *
+ * The region grows to include every changed cell, so that all of the changes
+ * can be sent in a single upload.
+ */
+class DirtyRegion {
+
+    private int minX, minZ, maxX, maxZ;
+
+    public DirtyRegion() {
+        clear();
+    }
+
+    /**
+     * Expands the region to include the given cell.
+     *
+     * @param x
+     * @param z
+     */
+    public void include(int x, int z) {
+        minX = Math.min(minX, x);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Empties the region.
+     */
+    public void clear() {
+        minX = Integer.MAX_VALUE;
+        minZ = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxZ = Integer.MIN_VALUE;
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getWidth() {
+        return maxX - minX + 1;
+    }
+
+    public int getHeight() {
+        return maxZ - minZ + 1;
+    }
+
+}
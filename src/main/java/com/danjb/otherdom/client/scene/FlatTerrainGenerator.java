@@ -0,0 +1,27 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * TerrainGenerator that creates a single island of grass at the origin,
+ * surrounded by water, with every vertex at sea level.
+ */
+public class FlatTerrainGenerator implements TerrainGenerator {
+
+    @Override
+    public TerrainSectionData generate(int sectionX, int sectionZ) {
+
+        TerrainSectionData data = new TerrainSectionData(sectionX, sectionZ);
+
+        if (sectionX == 0 && sectionZ == 0){
+            for (int tileZ = 0; tileZ < TerrainSection.NUM_TILES_PER_ROW;
+                    tileZ++){
+                for (int tileX = 0; tileX < TerrainSection.NUM_TILES_PER_ROW;
+                        tileX++){
+                    data.setTile(tileX, tileZ, TerrainSection.TILE_GRASS);
+                }
+            }
+        }
+
+        return data;
+    }
+
+}
@@ -17,6 +17,14 @@ public class LightSettings {
     
     private float diffuseIntensity;
 
+    /**
+     * Colour that distant objects fade into.
+     * 
+     * This should match the background colour, so that the edge of the
+     * visible terrain cannot be seen.
+     */
+    private Vector3f fogColour = new Vector3f(0.0f, 0.0f, 0.0f);
+
     public LightSettings(
             Vector3f ambientColour,
             float ambientIntensity,
@@ -49,5 +57,13 @@ public class LightSettings {
     public float getDiffuseIntensity() {
         return diffuseIntensity;
     }
+    
+    public void setFogColour(Vector3f fogColour) {
+        this.fogColour = fogColour;
+    }
+    
+    public Vector3f getFogColour() {
+        return fogColour;
+    }
 
 }
@@ -0,0 +1,207 @@
+package com.danjb.otherdom.client.scene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.stb.STBImage;
+
+/**
+ * Class responsible for converting a map drawn as a pair of images into
+ * TerrainSections.
+ *
+ * The map consists of:
+ *
+ * - A tile map: a greyscale image with one pixel per tile, whose value is
+ *   the ID of the tile (e.g. TILE_WATER or TILE_GRASS).
+ *
+ * - A height map: a greyscale image with one pixel per vertex, from
+ *   MIN_HEIGHT (black) to MAX_HEIGHT (white). Since there is one more vertex
+ *   than tile in each direction, this should ideally be one pixel wider and
+ *   taller than the tile map; if not, the nearest pixel at the edge is used.
+ *   16-bit images are read at full precision.
+ *
+ * The top-left corner of the map is placed at the north-western corner of
+ * section (0, 0). Any partial TerrainSections at the southern and eastern
+ * edges are filled with water.
+ *
+ * The TerrainSections are generated in parallel, one band of rows at a
+ * time, and written to a TerrainSectionStore as soon as each band is
+ * complete. Only the decoded images and a single band of TerrainSections
+ * are ever held in memory, so the map can be far larger than the number of
+ * TerrainSections that could be loaded at once. The World can then stream
+ * the TerrainSections in around the player using a StoredTerrainGenerator.
+ */
+public class MapImporter {
+
+    /**
+     * Approximate number of TerrainSections to generate in each band.
+     */
+    private static final int SECTIONS_PER_BAND = 256;
+
+    /**
+     * TerrainGenerator that samples the decoded images.
+     *
+     * The images are only read, using absolute gets, so this can safely be
+     * used by several worker threads at once.
+     */
+    private static class ImageTerrainGenerator implements TerrainGenerator {
+
+        private ByteBuffer tilePixels;
+        private int tileMapWidth, tileMapHeight;
+
+        private ShortBuffer heightPixels;
+        private int heightMapWidth, heightMapHeight;
+
+        public ImageTerrainGenerator(
+                ByteBuffer tilePixels, int tileMapWidth, int tileMapHeight,
+                ShortBuffer heightPixels, int heightMapWidth,
+                int heightMapHeight) {
+            this.tilePixels = tilePixels;
+            this.tileMapWidth = tileMapWidth;
+            this.tileMapHeight = tileMapHeight;
+            this.heightPixels = heightPixels;
+            this.heightMapWidth = heightMapWidth;
+            this.heightMapHeight = heightMapHeight;
+        }
+
+        @Override
+        public TerrainSectionData generate(int sectionX, int sectionZ) {
+
+            TerrainSectionData data =
+                    new TerrainSectionData(sectionX, sectionZ);
+
+            int numTilesPerRow = TerrainSection.NUM_TILES_PER_ROW;
+            int numVerticesPerRow = TerrainSection.NUM_VERTICES_PER_ROW;
+            int originX = sectionX * numTilesPerRow;
+            int originZ = sectionZ * numTilesPerRow;
+
+            // Tiles outside the tile map are left as water
+            for (int tileZ = 0; tileZ < numTilesPerRow; tileZ++){
+                int pixelZ = originZ + tileZ;
+                if (pixelZ >= tileMapHeight){
+                    break;
+                }
+                for (int tileX = 0; tileX < numTilesPerRow; tileX++){
+                    int pixelX = originX + tileX;
+                    if (pixelX >= tileMapWidth){
+                        break;
+                    }
+                    data.setTile(tileX, tileZ, tilePixels.get(
+                            pixelZ * tileMapWidth + pixelX) & 0xff);
+                }
+            }
+
+            for (int z = 0; z < numVerticesPerRow; z++){
+                int pixelZ = Math.min(originZ + z, heightMapHeight - 1);
+                for (int x = 0; x < numVerticesPerRow; x++){
+                    int pixelX = Math.min(originX + x, heightMapWidth - 1);
+                    int value = heightPixels.get(
+                            pixelZ * heightMapWidth + pixelX) & 0xffff;
+                    data.setHeight(x, z, TerrainSection.MIN_HEIGHT
+                            + (TerrainSection.MAX_HEIGHT
+                                    - TerrainSection.MIN_HEIGHT)
+                            * value / 0xffff);
+                }
+            }
+
+            return data;
+        }
+
+    }
+
+    private TerrainSectionStore store;
+
+    public MapImporter(TerrainSectionStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Imports the map described by the given images.
+     *
+     * This blocks until every TerrainSection has been written.
+     *
+     * @param tileMapFilename
+     * @param heightMapFilename
+     * @throws IOException
+     */
+    public void importMap(String tileMapFilename, String heightMapFilename)
+            throws IOException {
+
+        IntBuffer w = BufferUtils.createIntBuffer(1);
+        IntBuffer h = BufferUtils.createIntBuffer(1);
+        IntBuffer comp = BufferUtils.createIntBuffer(1);
+
+        // Decode both images to a single channel, which is all we need
+        ByteBuffer tilePixels =
+                STBImage.stbi_load(tileMapFilename, w, h, comp, 1);
+        if (tilePixels == null) {
+            throw new RuntimeException("Error loading " + tileMapFilename
+                    + ": " + STBImage.stbi_failure_reason());
+        }
+        int tileMapWidth = w.get(0);
+        int tileMapHeight = h.get(0);
+
+        ShortBuffer heightPixels =
+                STBImage.stbi_load_16(heightMapFilename, w, h, comp, 1);
+        if (heightPixels == null) {
+            STBImage.stbi_image_free(tilePixels);
+            throw new RuntimeException("Error loading " + heightMapFilename
+                    + ": " + STBImage.stbi_failure_reason());
+        }
+        int heightMapWidth = w.get(0);
+        int heightMapHeight = h.get(0);
+
+        try {
+            TerrainGenerator generator = new ImageTerrainGenerator(
+                    tilePixels, tileMapWidth, tileMapHeight,
+                    heightPixels, heightMapWidth, heightMapHeight);
+            writeSections(generator,
+                    getNumSections(tileMapWidth),
+                    getNumSections(tileMapHeight));
+        } finally {
+            STBImage.stbi_image_free(tilePixels);
+            STBImage.stbi_image_free(heightPixels);
+        }
+    }
+
+    /**
+     * Generates and writes every TerrainSection of the map, one band of rows
+     * at a time.
+     *
+     * @param generator
+     * @param numSectionsX
+     * @param numSectionsZ
+     * @throws IOException
+     */
+    private void writeSections(TerrainGenerator generator,
+            int numSectionsX, int numSectionsZ) throws IOException {
+
+        TerrainSectionLoader loader = new TerrainSectionLoader(generator);
+        int rowsPerBand = Math.max(1, SECTIONS_PER_BAND / numSectionsX);
+
+        for (int minZ = 0; minZ < numSectionsZ; minZ += rowsPerBand){
+            int maxZ = Math.min(minZ + rowsPerBand, numSectionsZ) - 1;
+            TerrainSectionData[] band = loader.generateArea(
+                    0, minZ, numSectionsX - 1, maxZ);
+            for (TerrainSectionData data : band){
+                store.write(data);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of TerrainSections needed to cover the given number of
+     * tiles.
+     *
+     * @param numTiles
+     * @return
+     */
+    private static int getNumSections(int numTiles) {
+        return (numTiles + TerrainSection.NUM_TILES_PER_ROW - 1)
+                / TerrainSection.NUM_TILES_PER_ROW;
+    }
+
+}
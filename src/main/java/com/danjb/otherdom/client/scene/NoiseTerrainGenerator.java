@@ -0,0 +1,174 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * TerrainGenerator that creates rolling hills and seas using fractal value
+ * noise.
+ *
+ * The noise is a pure function of the seed and the world co-ordinates of
+ * each vertex, so neighbouring TerrainSections always agree along their
+ * shared edges, and the same seed always produces the same world, whatever
+ * order the TerrainSections are generated in.
+ *
+ * Tiles are then assigned according to their height: anything below sea
+ * level becomes water, and everything else becomes grass.
+ */
+public class NoiseTerrainGenerator implements TerrainGenerator {
+
+    /**
+     * Number of layers of noise added together.
+     *
+     * Each layer has half the wavelength and half the amplitude of the last.
+     */
+    private static final int NUM_OCTAVES = 4;
+
+    /**
+     * Distance between lattice points of the first octave, in metres.
+     */
+    private static final float BASE_WAVELENGTH = 64;
+
+    /**
+     * Maximum height above / depth below sea level, in metres.
+     */
+    private static final float AMPLITUDE = 0.75f * TerrainSection.MAX_HEIGHT;
+
+    /**
+     * Height below which tiles become water.
+     */
+    private static final float SEA_LEVEL = 0;
+
+    private long seed;
+
+    public NoiseTerrainGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public TerrainSectionData generate(int sectionX, int sectionZ) {
+
+        TerrainSectionData data = new TerrainSectionData(sectionX, sectionZ);
+
+        int numVerticesPerRow = TerrainSection.NUM_VERTICES_PER_ROW;
+        int numTilesPerRow = TerrainSection.NUM_TILES_PER_ROW;
+        int originX = sectionX * numTilesPerRow;
+        int originZ = sectionZ * numTilesPerRow;
+
+        // Heights
+        for (int z = 0; z < numVerticesPerRow; z++){
+            for (int x = 0; x < numVerticesPerRow; x++){
+                data.setHeight(x, z, getHeight(originX + x, originZ + z));
+            }
+        }
+
+        // Tiles, based on the average height of their corners
+        float[] heights = data.getHeights();
+        for (int tileZ = 0; tileZ < numTilesPerRow; tileZ++){
+            for (int tileX = 0; tileX < numTilesPerRow; tileX++){
+                int i = tileZ * numVerticesPerRow + tileX;
+                float height = (heights[i]
+                        + heights[i + 1]
+                        + heights[i + numVerticesPerRow]
+                        + heights[i + numVerticesPerRow + 1]) / 4;
+                data.setTile(tileX, tileZ, height < SEA_LEVEL
+                        ? TerrainSection.TILE_WATER
+                        : TerrainSection.TILE_GRASS);
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Calculates the height of the vertex at the given world grid
+     * co-ordinates.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    private float getHeight(int x, int z) {
+
+        float worldX = x * TerrainSection.TILE_WIDTH;
+        float worldZ = z * TerrainSection.TILE_WIDTH;
+
+        float total = 0;
+        float totalAmplitude = 0;
+        float amplitude = 1;
+        float wavelength = BASE_WAVELENGTH;
+
+        for (int octave = 0; octave < NUM_OCTAVES; octave++){
+            total += amplitude * getNoise(
+                    worldX / wavelength, worldZ / wavelength, octave);
+            totalAmplitude += amplitude;
+            amplitude /= 2;
+            wavelength /= 2;
+        }
+
+        // Normalise to the range -1 to 1 before scaling
+        return (total / totalAmplitude) * AMPLITUDE;
+    }
+
+    /**
+     * Samples one octave of value noise at the given point, by smoothly
+     * interpolating between the random values at the surrounding lattice
+     * points.
+     *
+     * @param x Position, in lattice units.
+     * @param z Position, in lattice units.
+     * @param octave
+     * @return A value in the range -1 to 1.
+     */
+    private float getNoise(float x, float z, int octave) {
+
+        int x0 = (int) Math.floor(x);
+        int z0 = (int) Math.floor(z);
+        float fx = smoothStep(x - x0);
+        float fz = smoothStep(z - z0);
+
+        float top = lerp(
+                getLatticeValue(x0, z0, octave),
+                getLatticeValue(x0 + 1, z0, octave),
+                fx);
+        float bottom = lerp(
+                getLatticeValue(x0, z0 + 1, octave),
+                getLatticeValue(x0 + 1, z0 + 1, octave),
+                fx);
+        return lerp(top, bottom, fz);
+    }
+
+    /**
+     * Gets the random value at the given lattice point.
+     *
+     * This is derived by hashing the seed together with the co-ordinates,
+     * rather than by using a shared random number generator, so that it is
+     * the same regardless of which thread asks for it, or when.
+     *
+     * @param x
+     * @param z
+     * @param octave
+     * @return A value in the range -1 to 1.
+     */
+    private float getLatticeValue(int x, int z, int octave) {
+
+        long h = seed;
+        h ^= x * 0x9E3779B97F4A7C15L;
+        h ^= z * 0xC2B2AE3D27D4EB4FL;
+        h ^= octave * 0x165667B19E3779F9L;
+
+        // SplitMix64 finaliser, to spread the bits of the input
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h = h ^ (h >>> 31);
+
+        // Use the top 24 bits, which fit exactly in a float
+        return (h >>> 40) / (float) (1 << 24) * 2 - 1;
+    }
+
+    private static float smoothStep(float t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+}
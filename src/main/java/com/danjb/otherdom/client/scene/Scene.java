@@ -17,6 +17,8 @@ public class Scene {
         this.world = world;
         this.camera = camera;
         this.lightSettings = lightSettings;
+        
+        setViewDistance(camera.getViewDistance());
     }
     
     public Camera getCamera() {
@@ -31,4 +33,19 @@ public class Scene {
         return lightSettings;
     }
 
+    /**
+     * Sets the distance from the camera beyond which nothing is drawn.
+     * 
+     * The World's TerrainStreamer is updated so that every TerrainSection
+     * within this distance of the player is loaded.
+     * 
+     * @param viewDistance View distance in metres.
+     */
+    public void setViewDistance(float viewDistance) {
+        camera.setViewDistance(viewDistance);
+        int radius = (int) Math.ceil(
+                camera.getViewDistance() / TerrainSection.WIDTH);
+        world.getTerrainStreamer().setLoadRadius(radius);
+    }
+
 }
@@ -0,0 +1,292 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * Map from section co-ordinates to values.
+ *
+ * The co-ordinates are packed into a single long, and entries are stored in
+ * flat arrays using open addressing (linear probing), so lookups do not
+ * allocate any objects and stay fast however many sections are stored.
+ *
+ * Null values are not permitted.
+ *
+ * @param <T> Type of value stored.
+ */
+class SectionMap<T> {
+
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Condition used to select entries for removal.
+     *
+     * @param <T> Type of value stored.
+     */
+    interface EntryFilter<T> {
+
+        boolean test(int sectionX, int sectionZ, T value);
+
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Fraction of slots that may be occupied before the map grows.
+     *
+     * Linear probing slows down sharply as the map fills up, so we keep
+     * plenty of slots free.
+     */
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    /**
+     * Values, in the same slots as their keys; null for empty slots.
+     */
+    private Object[] values;
+
+    private int size;
+
+    /**
+     * Keys of the entries selected by removeIf.
+     *
+     * Removing an entry can move later entries back into its slot, so
+     * entries cannot safely be removed while scanning the table; instead, we
+     * collect their keys first. This array is kept to avoid allocating a new
+     * one each time.
+     */
+    private long[] removalKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Number of entries at which the map grows.
+     */
+    private int threshold;
+
+    public SectionMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Packs the given section co-ordinates into a single key.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return
+     */
+    public static long getKey(int sectionX, int sectionZ) {
+        return ((long) sectionX << 32) | (sectionZ & 0xffffffffL);
+    }
+
+    /**
+     * Gets the x-co-ordinate of the section identified by the given key.
+     *
+     * @param key
+     * @return
+     */
+    public static int getX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Gets the z-co-ordinate of the section identified by the given key.
+     *
+     * @param key
+     * @return
+     */
+    public static int getZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Gets the value stored for the given section co-ordinates.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return The value, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int sectionX, int sectionZ) {
+        int slot = findSlot(getKey(sectionX, sectionZ));
+        return (T) values[slot];
+    }
+
+    /**
+     * Determines whether a value is stored for the given section
+     * co-ordinates.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return
+     */
+    public boolean contains(int sectionX, int sectionZ) {
+        return get(sectionX, sectionZ) != null;
+    }
+
+    /**
+     * Stores a value for the given section co-ordinates, replacing any
+     * existing value.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @param value
+     */
+    public void put(int sectionX, int sectionZ, T value) {
+
+        if (value == null){
+            throw new IllegalArgumentException("Null values are not permitted");
+        }
+
+        long key = getKey(sectionX, sectionZ);
+        int slot = findSlot(key);
+        if (values[slot] == null){
+            if (size >= threshold){
+                allocate(keys.length * 2);
+                slot = findSlot(key);
+            }
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * Removes the value stored for the given section co-ordinates.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return The removed value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(int sectionX, int sectionZ) {
+
+        int slot = findSlot(getKey(sectionX, sectionZ));
+        T removed = (T) values[slot];
+        if (removed == null){
+            return null;
+        }
+        values[slot] = null;
+        size--;
+
+        /*
+         * Lookups stop at the first empty slot, so any later entries in the
+         * same run must be moved back to fill the gap, unless they already
+         * sit at or after their ideal slot.
+         */
+        int mask = keys.length - 1;
+        int gap = slot;
+        int i = (slot + 1) & mask;
+        while (values[i] != null){
+            int ideal = getIdealSlot(keys[i]);
+            // Distance from each entry's ideal slot, wrapping around
+            if (((i - ideal) & mask) >= ((i - gap) & mask)){
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                values[i] = null;
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes every entry that matches the given filter.
+     *
+     * The filter must not modify the map.
+     *
+     * @param filter
+     * @return Number of entries removed.
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(EntryFilter<T> filter) {
+
+        int numRemovals = 0;
+        for (int i = 0; i < values.length; i++){
+            if (values[i] == null){
+                continue;
+            }
+            long key = keys[i];
+            if (!filter.test(getX(key), getZ(key), (T) values[i])){
+                continue;
+            }
+            if (numRemovals == removalKeys.length){
+                long[] newRemovalKeys = new long[removalKeys.length * 2];
+                System.arraycopy(removalKeys, 0,
+                        newRemovalKeys, 0, numRemovals);
+                removalKeys = newRemovalKeys;
+            }
+            removalKeys[numRemovals] = key;
+            numRemovals++;
+        }
+
+        for (int i = 0; i < numRemovals; i++){
+            long key = removalKeys[i];
+            remove(getX(key), getZ(key));
+        }
+
+        return numRemovals;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the slot containing the given key, or the empty slot where it
+     * would be inserted.
+     *
+     * @param key
+     * @return
+     */
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = getIdealSlot(key);
+        while (values[slot] != null && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the slot in which the given key would be stored if there were no
+     * collisions.
+     *
+     * @param key
+     * @return
+     */
+    private int getIdealSlot(long key) {
+        // Mix the bits, so that nearby sections are spread across the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h & (keys.length - 1);
+    }
+
+    /**
+     * Resizes the table to the given capacity, re-inserting any existing
+     * entries.
+     *
+     * @param capacity Must be a power of 2.
+     */
+    private void allocate(int capacity) {
+
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * MAX_LOAD_FACTOR);
+
+        if (oldValues == null){
+            return;
+        }
+        for (int i = 0; i < oldValues.length; i++){
+            if (oldValues[i] != null){
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.danjb.otherdom.client.scene;
+
+import java.io.IOException;
+
+/**
+ * TerrainGenerator that reads TerrainSections from a TerrainSectionStore,
+ * such as one produced by a MapImporter.
+ *
+ * TerrainSections are only read when they are requested, so only those near
+ * the player are ever held in memory. Any TerrainSection missing from the
+ * store (e.g. beyond the edge of an imported map) is created by a fallback
+ * TerrainGenerator instead.
+ */
+public class StoredTerrainGenerator implements TerrainGenerator {
+
+    private TerrainSectionStore store;
+
+    private TerrainGenerator fallback;
+
+    public StoredTerrainGenerator(TerrainSectionStore store,
+            TerrainGenerator fallback) {
+        this.store = store;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public TerrainSectionData generate(int sectionX, int sectionZ) {
+
+        TerrainSectionData data;
+        try {
+            data = store.read(sectionX, sectionZ);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading TerrainSection ("
+                    + sectionX + ", " + sectionZ + ")", e);
+        }
+
+        return data != null ? data : fallback.generate(sectionX, sectionZ);
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.danjb.otherdom.client.scene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects changes to the terrain so that they can be sent to the GPU
+ * together.
+ * 
+ * Changes made through a TerrainEdit take effect immediately on the CPU, but
+ * the GPU is only updated when the edit is committed. By then, all of the
+ * changes to each TerrainSection are known, so they can be uploaded in as few
+ * calls as possible, and only the affected parts of each buffer are sent.
+ * 
+ * A single TerrainEdit can span any number of TerrainSections.
+ */
+public class TerrainEdit {
+
+    /**
+     * Types of brush that can be used to change the terrain elevation.
+     */
+    private static enum Brush {
+        
+        /**
+         * Adds to the height of each vertex, scaled by the brush falloff.
+         */
+        RAISE,
+        
+        /**
+         * Moves each vertex towards a target height, scaled by the brush
+         * falloff.
+         */
+        FLATTEN
+    }
+
+    /**
+     * TerrainSections that have changed since the last commit.
+     */
+    private List<TerrainSection> changedSections = new ArrayList<>();
+
+    /**
+     * Changes the tile at the given co-ordinates.
+     * 
+     * @param section
+     * @param tileX
+     * @param tileZ
+     * @param tileId
+     */
+    public void setTile(TerrainSection section, int tileX, int tileZ,
+            int tileId) {
+        if (section.setTile(tileX, tileZ, tileId)){
+            changedSections.add(section);
+        }
+    }
+
+    /**
+     * Raises the terrain around the given vertex.
+     * 
+     * The change is greatest at the centre of the brush and falls off
+     * linearly towards its edge. The brush may extend into neighbouring
+     * TerrainSections.
+     * 
+     * @param world
+     * @param section TerrainSection containing the centre of the brush.
+     * @param x Grid co-ordinate of the centre of the brush.
+     * @param z Grid co-ordinate of the centre of the brush.
+     * @param radius Radius of the brush, in vertices.
+     * @param amount Height to add at the centre of the brush, in metres.
+     */
+    public void raise(World world, TerrainSection section, int x, int z,
+            int radius, float amount) {
+        applyBrush(world, section, x, z, radius, Brush.RAISE, amount);
+    }
+
+    /**
+     * Lowers the terrain around the given vertex.
+     * 
+     * See raise().
+     * 
+     * @param world
+     * @param section TerrainSection containing the centre of the brush.
+     * @param x Grid co-ordinate of the centre of the brush.
+     * @param z Grid co-ordinate of the centre of the brush.
+     * @param radius Radius of the brush, in vertices.
+     * @param amount Height to remove at the centre of the brush, in metres.
+     */
+    public void lower(World world, TerrainSection section, int x, int z,
+            int radius, float amount) {
+        applyBrush(world, section, x, z, radius, Brush.RAISE, -amount);
+    }
+
+    /**
+     * Flattens the terrain around the given vertex to the height of that
+     * vertex.
+     * 
+     * The centre of the brush is flattened completely, while vertices
+     * further out are only moved part of the way towards the target height.
+     * 
+     * @param world
+     * @param section TerrainSection containing the centre of the brush.
+     * @param x Grid co-ordinate of the centre of the brush.
+     * @param z Grid co-ordinate of the centre of the brush.
+     * @param radius Radius of the brush, in vertices.
+     */
+    public void flatten(World world, TerrainSection section, int x, int z,
+            int radius) {
+        applyBrush(world, section, x, z, radius, Brush.FLATTEN,
+                section.getHeight(x, z));
+    }
+
+    /**
+     * Applies a brush to the terrain around the given vertex.
+     * 
+     * Vertices on the border of a TerrainSection are also stored by its
+     * neighbours, so every loaded TerrainSection that contains part of the
+     * brush is updated. Only the changed region of each height map needs to
+     * be sent to the GPU.
+     * 
+     * @param world
+     * @param section
+     * @param x
+     * @param z
+     * @param radius
+     * @param brush
+     * @param value Amount to raise by, or target height, depending on the
+     * brush.
+     */
+    private void applyBrush(World world, TerrainSection section,
+            int x, int z, int radius, Brush brush, float value) {
+        
+        int n = TerrainSection.NUM_TILES_PER_ROW;
+        
+        // Find the bounds of the brush in world grid co-ordinates
+        int centreX = section.getSectionX() * n + x;
+        int centreZ = section.getSectionZ() * n + z;
+        int minX = centreX - radius;
+        int minZ = centreZ - radius;
+        int maxX = centreX + radius;
+        int maxZ = centreZ + radius;
+        
+        // Vertices on the lower border of a TerrainSection are also the
+        // upper border of the previous one, hence the "- 1"
+        int minSectionX = Math.floorDiv(minX - 1, n);
+        int minSectionZ = Math.floorDiv(minZ - 1, n);
+        int maxSectionX = Math.floorDiv(maxX, n);
+        int maxSectionZ = Math.floorDiv(maxZ, n);
+        
+        // Change the heights
+        for (int sz = minSectionZ; sz <= maxSectionZ; sz++){
+            for (int sx = minSectionX; sx <= maxSectionX; sx++){
+                TerrainSection target = world.getSection(sx, sz);
+                if (target == null){
+                    continue;
+                }
+                int localMinX = Math.max(0, minX - sx * n);
+                int localMinZ = Math.max(0, minZ - sz * n);
+                int localMaxX = Math.min(n, maxX - sx * n);
+                int localMaxZ = Math.min(n, maxZ - sz * n);
+                
+                for (int vz = localMinZ; vz <= localMaxZ; vz++){
+                    for (int vx = localMinX; vx <= localMaxX; vx++){
+                        float dx = sx * n + vx - centreX;
+                        float dz = sz * n + vz - centreZ;
+                        float dist = (float) Math.sqrt(dx * dx + dz * dz);
+                        if (dist > radius){
+                            continue;
+                        }
+                        float weight = 1 - dist / (radius + 1);
+                        float height = target.getHeight(vx, vz);
+                        if (brush == Brush.RAISE){
+                            height += weight * value;
+                        } else {
+                            height += weight * (value - height);
+                        }
+                        if (target.setHeight(vx, vz, height)){
+                            changedSections.add(target);
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Update the borders of the neighbouring height maps. This must be
+        // done after all the heights have changed, since a neighbour may
+        // itself be part of the brush.
+        for (int sz = minSectionZ; sz <= maxSectionZ; sz++){
+            for (int sx = minSectionX; sx <= maxSectionX; sx++){
+                TerrainSection target = world.getSection(sx, sz);
+                if (target == null){
+                    continue;
+                }
+                refreshNeighbourBorders(target,
+                        minX - sx * n,
+                        minZ - sz * n,
+                        maxX - sx * n,
+                        maxZ - sz * n);
+            }
+        }
+    }
+
+    /**
+     * Updates the borders of the height maps of the TerrainSections around
+     * the given TerrainSection, after the heights in the given range have
+     * changed.
+     * 
+     * The border of each height map mirrors the heights just inside the
+     * neighbouring TerrainSections, so only the neighbours whose borders
+     * overlap the range are affected, and only that part of each border is
+     * updated.
+     * 
+     * @param section
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     */
+    void refreshNeighbourBorders(TerrainSection section,
+            int minX, int minZ, int maxX, int maxZ) {
+
+        int n = TerrainSection.NUM_TILES_PER_ROW;
+        
+        for (int dz = -1; dz <= 1; dz++){
+            for (int dx = -1; dx <= 1; dx++){
+                if (dx == 0 && dz == 0){
+                    continue;
+                }
+                
+                TerrainSection neighbour = section.getNeighbour(dx, dz);
+                if (neighbour == null){
+                    continue;
+                }
+                
+                // Convert the range to the neighbour's grid co-ordinates;
+                // anything outside its border is ignored
+                if (neighbour.refreshBorderHeights(
+                        minX - dx * n, minZ - dz * n,
+                        maxX - dx * n, maxZ - dz * n)){
+                    changedSections.add(neighbour);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends all changes made since the last commit to the GPU.
+     */
+    public void commit() {
+        for (TerrainSection section : changedSections){
+            section.uploadChanges();
+        }
+        changedSections.clear();
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * Interface for objects that create the initial contents of TerrainSections.
+ *
+ * TerrainSections are generated on several worker threads at once, so
+ * implementations must be thread-safe. To keep the world deterministic, the
+ * result must depend only on the section co-ordinates (and any settings such
+ * as a seed), never on the order in which TerrainSections are generated.
+ */
+public interface TerrainGenerator {
+
+    /**
+     * Generates the tiles and heights of the TerrainSection at the given
+     * co-ordinates.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return
+     */
+    TerrainSectionData generate(int sectionX, int sectionZ);
+
+}
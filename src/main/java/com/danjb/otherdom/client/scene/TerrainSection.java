@@ -1,18 +1,18 @@
 package com.danjb.otherdom.client.scene;
 
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
-import org.joml.Vector3f;
+import org.joml.Vector3d;
 import org.lwjgl.BufferUtils;
-import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
-import com.danjb.otherdom.client.MousePicker;
 import com.danjb.otherdom.client.Texture;
-import com.danjb.otherdom.client.Vertex;
-import com.danjb.otherdom.client.render.Shaders;
+import com.danjb.otherdom.client.render.GLState;
+import com.danjb.otherdom.client.render.MeshBuilder;
+import com.danjb.otherdom.client.render.StagingBufferPool;
+import com.danjb.otherdom.client.render.VertexFormat;
 
 /**
  * A section of terrain, composed of a grid of tiles.
@@ -40,6 +40,43 @@ import com.danjb.otherdom.client.render.Shaders;
  *
  * We alternate the directions of the diagonals to make the terrain appear
  * more natural; otherwise the triangular structure becomes quite obvious.
+ * 
+ * The mesh is drawn using an index buffer. The vertex buffer holds each
+ * point of the grid above exactly once, and the index buffer connects these
+ * into the 2 triangles of each tile, taking into account the direction of the
+ * diagonal. Neighbouring tiles share their corners, so each vertex is only
+ * processed once by the vertex shader (thanks to the post-transform cache),
+ * rather than once for every tile that touches it. The shaders find the tile
+ * of each fragment from its interpolated position.
+ * 
+ * The x- and z-positions of the vertices are the same for every
+ * TerrainSection, so a single mesh is shared by all of them. Everything else
+ * is stored in small per-section textures, each occupying one layer of the
+ * TerrainTextureArena:
+ * 
+ *  - The "height map" holds the height of each vertex. The vertex shaders
+ *    sample this to displace each vertex and to calculate its normal.
+ *    
+ *  - The "tile map" holds the ID of each tile. The fragment shader uses this
+ *    to find the right part of the terrain texture.
+ * 
+ * Many TerrainSections (e.g. open sea) are completely uniform: every vertex
+ * has the same height and every tile is the same. Such TerrainSections
+ * share a single, reference-counted pair of textures (see
+ * UniformTerrainTextures), and only get textures of their own when they
+ * are first changed (copy-on-write).
+ * 
+ * Distant TerrainSections can be drawn at a lower level of detail (LOD).
+ * Each LOD halves the number of tiles per row by merging blocks of tiles into
+ * a single, larger "quad". Since the texture is looked up per-fragment, each
+ * tile within the quad still shows its own texture. Every LOD uses the same
+ * vertices (lower LODs simply skip some of them), and the index buffer has a
+ * separate range for each LOD.
+ * 
+ * Where 2 TerrainSections with different LODs meet, the edges do not line up
+ * exactly, which would leave small cracks in the terrain. To hide these, each
+ * LOD includes a "skirt": a strip of quads that hangs down vertically from
+ * each edge of the TerrainSection.
  */
 public class TerrainSection extends WorldModel {
 
@@ -51,164 +88,218 @@ public class TerrainSection extends WorldModel {
     public static final int TILE_WATER = 0;
     public static final int TILE_GRASS = 1;
 
-    private static final Texture TEXTURE = new Texture("terrain.png", false);
-    
+    private static final String TEXTURE_FILENAME = "terrain.png";
+
     /**
-     * The width of the terrain texture, in pixels.
+     * Texture shared by all TerrainSections.
+     * 
+     * This is loaded on first use rather than when the class is loaded, as
+     * TerrainSections may be created on a worker thread, whereas textures
+     * can only be created on the rendering thread.
+     */
+    private static Texture texture;
+    
+    /*
+     * The layout of the terrain texture is defined in terrain.frag.
      */
-    private static final int TEXTURE_WIDTH = 512;
 
     /**
-     * The height of the terrain texture, in pixels.
+     * The number of tiles in one row / column of the TerrainSection.
      */
-    private static final int TEXTURE_HEIGHT = 512;
+    public static final int NUM_TILES_PER_ROW = 32;
 
     /**
-     * The number of columns in the terrain texture.
+     * The width / length of one tile, in metres.
      */
-    private static final int TEXTURE_TILES_X = 8;
+    public static final float TILE_WIDTH = 1;
 
     /**
-     * The number of rows in the terrain texture.
+     * The width / length of the TerrainSection, in metres.
      */
-    private static final int TEXTURE_TILES_Y = 8;
+    public static final float WIDTH = NUM_TILES_PER_ROW * TILE_WIDTH;
 
     /**
-     * The width of one tile of the terrain texture, in pixels.
+     * Number of vertices per "row" of the TerrainSection.
      */
-    private static final int TEXTURE_TILE_WIDTH = 
-            TEXTURE_WIDTH / TEXTURE_TILES_X;
+    public static final int NUM_VERTICES_PER_ROW = NUM_TILES_PER_ROW + 1;
 
     /**
-     * The height of one tile of the terrain texture, in pixels.
+     * Width / length of the height map, in texels.
+     * 
+     * The height map has a 1-texel border around the vertex grid, holding the
+     * heights of the adjacent vertices in the neighbouring TerrainSections.
+     * This allows the vertex shader to calculate normals along the edges.
      */
-    private static final int TEXTURE_TILE_HEIGHT = 
-            TEXTURE_HEIGHT / TEXTURE_TILES_Y;
+    static final int HEIGHT_MAP_WIDTH = NUM_VERTICES_PER_ROW + 2;
 
     /**
-     * The number of tiles in one row / column of the TerrainSection.
+     * Number of levels of detail.
+     * 
+     * At each level, the number of tiles per row is halved, so the lowest
+     * level of detail has 4 (large) tiles per row.
      */
-    public static final int NUM_TILES_PER_ROW = 32;
+    public static final int NUM_LOD_LEVELS = 4;
 
     /**
-     * The width / length of one tile, in metres.
+     * Depth of the skirt around each edge of the TerrainSection, in metres.
      */
-    public static final float TILE_WIDTH = 1;
+    private static final float SKIRT_DEPTH = 2.0f;
+
+    /*
+     * Edges of the TerrainSection, used to identify skirts.
+     */
+    private static final int EDGE_NORTH = 0;
+    private static final int EDGE_EAST = 1;
+    private static final int EDGE_SOUTH = 2;
+    private static final int EDGE_WEST = 3;
+    private static final int NUM_EDGES = 4;
 
     /**
-     * The width / length of the TerrainSection, in metres.
+     * Number of indices required to draw each quad (2 triangles).
      */
-    public static final float WIDTH = NUM_TILES_PER_ROW * TILE_WIDTH;
+    private static final int NUM_INDICES_PER_QUAD = 6;
 
     /**
-     * Number of vertices per "row" of the TerrainSection.
+     * Index of the first quad (i.e. tile, or segment of a skirt) of each
+     * level of detail, within the index buffer.
+     * 
+     * Each level consists of all of its tiles, in row order, followed by the
+     * segments of its skirt, one edge at a time.
      */
-    private static final int NUM_VERTICES_PER_ROW = NUM_TILES_PER_ROW + 1;
+    private static final int[] LOD_FIRST_QUAD = new int[NUM_LOD_LEVELS + 1];
+    static {
+        for (int lod = 0; lod < NUM_LOD_LEVELS; lod++){
+            int numTilesPerRow = getNumTilesPerRow(lod);
+            LOD_FIRST_QUAD[lod + 1] = LOD_FIRST_QUAD[lod]
+                    + numTilesPerRow * numTilesPerRow
+                    + NUM_EDGES * numTilesPerRow;
+        }
+    }
 
     /**
-     * Total number of vertices in the VAO for one TerrainSection.
-     * As far as OpenGL is concerned, each tile actually has 6 vertices: 
-     * 2 triangles with 3 vertices each. This means there is some duplication
-     * of vertices when we pass data to the GPU. This could be avoided using
-     * an index buffer, but it adds significant complexity for not much gain.
+     * Total number of quads in the index buffer, across all levels of detail.
      */
-    public static final int NUM_VERTICES = 
-            6 * NUM_TILES_PER_ROW * NUM_VERTICES_PER_ROW;
+    private static final int NUM_QUADS = LOD_FIRST_QUAD[NUM_LOD_LEVELS];
 
     /**
-     * The lowest possible vertex height, in metres.
-     * 0 is considered to be sea level.
+     * Number of vertices in the grid covering the surface of the
+     * TerrainSection.
      */
-    public static final float MIN_HEIGHT = -0.5f;
-    
+    private static final int NUM_GRID_VERTICES =
+            NUM_VERTICES_PER_ROW * NUM_VERTICES_PER_ROW;
+
     /**
-     * The highest possible vertex height, in metres.
+     * Total number of vertices in the shared mesh.
+     * 
+     * The grid is followed by the bottom of the skirt along each edge; the
+     * top of the skirt is the edge of the grid itself.
      */
-    public static final float MAX_HEIGHT = 0.5f;
+    public static final int NUM_VERTICES =
+            NUM_GRID_VERTICES + NUM_EDGES * NUM_VERTICES_PER_ROW;
 
     /**
-     * Buffer used to store vertex positions (x, y, z).
+     * Total number of indices in the index buffer.
      */
-    private FloatBuffer vertexBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
-    
+    private static final int NUM_INDICES = NUM_INDICES_PER_QUAD * NUM_QUADS;
+
     /**
-     * Buffer used to store vertex normals (x, y, z).
+     * The lowest possible vertex height, in metres.
+     * 0 is considered to be sea level.
      */
-    private FloatBuffer normalBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
+    public static final float MIN_HEIGHT = -16.0f;
     
     /**
-     * Buffer used to store vertex material ambient colours (r, g, b).
+     * The highest possible vertex height, in metres.
      */
-    private FloatBuffer ambientColourBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
+    public static final float MAX_HEIGHT = 16.0f;
 
     /**
-     * Buffer used to store vertex material diffuse colours (r, g, b).
+     * ID of the VBO holding the mesh shared by all TerrainSections.
      */
-    private FloatBuffer diffuseColourBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
+    private static int meshVboId = -1;
 
     /**
-     * Buffer used to store vertex texture co-ordinates (s, t).
+     * ID of the VAO used to draw every TerrainSection.
+     * 
+     * This only refers to the shared mesh and index buffer, so it can be
+     * shared as well.
      */
-    private FloatBuffer texCoordBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 2);
+    private static int meshVaoId = -1;
 
     /**
-     * Buffer used to store selection codes (r, g, b).
+     * ID of the index buffer shared by all TerrainSections.
+     * 
+     * Every TerrainSection has the same layout of vertices, so the same
+     * indices can be used to draw any of them.
      */
-    private FloatBuffer selectionCodeBuffer = 
-            BufferUtils.createFloatBuffer(NUM_VERTICES * 3);
+    private static int iboId = -1;
 
     /**
-     * The IDs of each tile in this TerrainSection.
+     * The IDs of each tile in this TerrainSection, indexed by
+     * getTileIndex(tileX, tileZ).
+     * 
+     * This is a direct buffer so that it can be sent to the tile map as-is.
      */
-    private int[][] tileIds = 
-            new int[NUM_TILES_PER_ROW][NUM_TILES_PER_ROW];
+    private ByteBuffer tileIds = 
+            BufferUtils.createByteBuffer(NUM_TILES_PER_ROW * NUM_TILES_PER_ROW);
     
     /**
-     * The vertices that make up this TerrainSection.
+     * The height of each vertex in this TerrainSection, in metres, indexed by
+     * getGridIndex(x, z).
      * 
-     * Note that we define each vertex only once, but when filling buffers to
-     * send to the GPU, we write each vertex multiple times, once for every
-     * adjacent tile. Since we are essentially sharing vertex objects between
-     * multiple tiles, this means that any properties that vary on a per-tile 
-     * basis, e.g. textures, cannot be defined in the vertex.
+     * This has the same layout as the height map, including the border that
+     * mirrors the heights of the neighbouring TerrainSections.
      */
-    private Vertex[][] vertices = 
-            new Vertex[NUM_VERTICES_PER_ROW][NUM_VERTICES_PER_ROW];
+    private float[] heights = new float[HEIGHT_MAP_WIDTH * HEIGHT_MAP_WIDTH];
     
     /**
-     * ID of the VBO that holds the position of each vertex.
+     * Layer of the TerrainTextureArena holding the height map and tile map,
+     * or -1 if they have not been sent to the GPU.
+     */
+    private int textureLayer = -1;
+
+    /**
+     * Region of the height map that has changed since it was last sent to
+     * the GPU, in grid co-ordinates.
      */
-    private int vboIdPositions;
+    private DirtyRegion dirtyHeights = new DirtyRegion();
 
     /**
-     * ID of the VBO that holds the normal vector of each vertex.
+     * Region of the tile map that has changed since it was last sent to the
+     * GPU, in tile co-ordinates.
      */
-    private int vboIdNormals;
+    private DirtyRegion dirtyTiles = new DirtyRegion();
 
     /**
-     * ID of the VBO that holds the ambient colour of each vertex.
+     * Textures shared with other uniform TerrainSections, if this
+     * TerrainSection is uniform and unchanged; otherwise null.
+     * 
+     * When this is set, textureLayer refers to the shared textures.
      */
-    private int vboIdAmbientColours;
+    private UniformTerrainTextures sharedTextures;
 
     /**
-     * ID of the VBO that holds the diffuse colour of each vertex.
+     * Whether the tiles or heights of this TerrainSection have been changed
+     * since it was generated.
+     * 
+     * Only modified TerrainSections need to be saved when they are unloaded;
+     * the rest can simply be generated again.
      */
-    private int vboIdDiffuseColours;
+    private boolean modified;
 
     /**
-     * ID of the VBO that holds the texture co-ordinates of each vertex.
+     * The lowest and highest vertex heights in this TerrainSection (excluding
+     * the border of the height map), in metres.
+     * 
+     * These are only valid while heightRangeDirty is false.
      */
-    private int vboIdTexCoords;
+    private float minHeight, maxHeight;
 
     /**
-     * ID of the VBO that holds the selection codes of each vertex.
+     * Whether any heights have changed since minHeight and maxHeight were
+     * calculated.
      */
-    private int vboIdSelectionCodes;
+    private boolean heightRangeDirty = true;
 
     /**
      * The co-ordinates of this TerrainSection within the terrain grid.
@@ -216,506 +307,797 @@ public class TerrainSection extends WorldModel {
     private int sectionX, sectionZ;
 
     /**
-     * Creates a new TerrainSection at the given section co-ordinates.
+     * The loaded TerrainSections around this one, indexed by
+     * getNeighbourIndex(); null where no TerrainSection is loaded.
      * 
-     * @param sectionX
-     * @param sectionZ
+     * These are kept up to date by the World, so that neighbours can be
+     * found without looking them up.
      */
-    public TerrainSection(int sectionX, int sectionZ){
-        super(new Vector3f(sectionX * WIDTH, 0, sectionZ * WIDTH), TEXTURE);
+    private TerrainSection[] neighbours = new TerrainSection[9];
+
+    /**
+     * Creates a TerrainSection from the given tiles and heights.
+     * 
+     * This only prepares the vertex data; it does not make any OpenGL calls,
+     * so it is safe to call from any thread. uploadMesh() must be called
+     * (on the rendering thread) before the TerrainSection can be drawn.
+     * 
+     * @param data Generated or previously-saved data.
+     * @param modified Whether the data contains changes that must be saved
+     * if the TerrainSection is unloaded.
+     */
+    TerrainSection(TerrainSectionData data, boolean modified){
+        super(new Vector3d(
+                (double) data.getSectionX() * WIDTH,
+                0,
+                (double) data.getSectionZ() * WIDTH),
+                null);
         
-        this.sectionX = sectionX;
-        this.sectionZ = sectionZ;
-
-        // Create tiles / vertices
-        for (int tileZ = 0; tileZ < NUM_TILES_PER_ROW; tileZ++){
-            for (int tileX = 0; tileX < NUM_TILES_PER_ROW; tileX++){
-                if (sectionX == 0 && sectionZ == 0){
-                    tileIds[tileX][tileZ] = TILE_GRASS;
-                } else {
-                    tileIds[tileX][tileZ] = TILE_WATER;
-                }
-                createVertex(tileX, tileZ, 0, 0);
-                createVertex(tileX, tileZ, 1, 0);
-                createVertex(tileX, tileZ, 0, 1);
-                createVertex(tileX, tileZ, 1, 1);
-            }
+        this.sectionX = data.getSectionX();
+        this.sectionZ = data.getSectionZ();
+        this.modified = modified;
+        
+        tileIds.put(data.getTileIds());
+        tileIds.rewind();
+        
+        float[] dataHeights = data.getHeights();
+        for (int z = 0; z < NUM_VERTICES_PER_ROW; z++){
+            System.arraycopy(dataHeights, z * NUM_VERTICES_PER_ROW,
+                    heights, getGridIndex(0, z), NUM_VERTICES_PER_ROW);
         }
         
-        // The normals can only be calculated once all vertices have been created
-        recalculateVertexNormals();
+        // Neighbouring TerrainSections are not available yet; the border of
+        // the height map is filled in when this is added to the World
+        refreshBorderHeights(-1, -1,
+                NUM_VERTICES_PER_ROW, NUM_VERTICES_PER_ROW);
+    }
+
+    /**
+     * Creates a compact copy of the tiles and heights of this
+     * TerrainSection, from which it can later be restored.
+     * 
+     * @return
+     */
+    TerrainSectionData createData() {
+        
+        byte[] savedTileIds = new byte[tileIds.capacity()];
+        tileIds.get(savedTileIds);
+        tileIds.rewind();
+        
+        // The border of the height map is not needed, since it is always
+        // taken from the neighbouring TerrainSections
+        float[] savedHeights =
+                new float[NUM_VERTICES_PER_ROW * NUM_VERTICES_PER_ROW];
+        for (int z = 0; z < NUM_VERTICES_PER_ROW; z++){
+            System.arraycopy(heights, getGridIndex(0, z),
+                    savedHeights, z * NUM_VERTICES_PER_ROW,
+                    NUM_VERTICES_PER_ROW);
+        }
+        
+        return new TerrainSectionData(
+                sectionX, sectionZ, savedTileIds, savedHeights);
+    }
+
+    /**
+     * Sends the height map and tile map to the GPU, or shares existing ones
+     * if this TerrainSection is uniform.
+     * 
+     * This must be called on the rendering thread.
+     */
+    void uploadMesh() {
+
+        // Create the shared mesh, if it does not already exist
+        if (meshVaoId == -1){
+            createMesh();
+        }
+        vaoId = meshVaoId;
         
-        // Put vertex data into buffers
-        for (int tileZ = 0; tileZ < NUM_TILES_PER_ROW; tileZ++){
-            boolean flipDiagonal = (tileZ % NUM_TILES_PER_ROW == 1);
-            for (int tileX = 0; tileX < NUM_TILES_PER_ROW; tileX++){
-                addTileToBuffers(tileX, tileZ, flipDiagonal);
-                // Alternate diagonals
-                flipDiagonal = !flipDiagonal;
+        if (isUniform()){
+            sharedTextures = UniformTerrainTextures.acquire(
+                    tileIds.get(0), heights[0]);
+            textureLayer = sharedTextures.getLayer();
+        } else {
+            createTextures();
+        }
+
+        // Everything has now been sent, so nothing is outstanding
+        dirtyHeights.clear();
+        dirtyTiles.clear();
+    }
+
+    /**
+     * Creates the textures for this TerrainSection, from its current tiles
+     * and heights.
+     */
+    private void createTextures() {
+        textureLayer = TerrainTextureArena.allocate();
+        TerrainTextureArena.uploadHeights(textureLayer, 0, 0,
+                HEIGHT_MAP_WIDTH, HEIGHT_MAP_WIDTH, heights);
+        TerrainTextureArena.uploadTileIds(textureLayer, 0, 0,
+                NUM_TILES_PER_ROW, NUM_TILES_PER_ROW, tileIds);
+    }
+
+    /**
+     * Determines whether every vertex of this TerrainSection (including the
+     * border of the height map) has the same height, and every tile is the
+     * same.
+     * 
+     * @return
+     */
+    private boolean isUniform() {
+        for (int i = 1; i < heights.length; i++){
+            if (heights[i] != heights[0]){
+                return false;
+            }
+        }
+        for (int i = 1; i < tileIds.capacity(); i++){
+            if (tileIds.get(i) != tileIds.get(0)){
+                return false;
             }
         }
+        return true;
+    }
 
-        // Prepare the buffers for reading
-        vertexBuffer.flip();
-        ambientColourBuffer.flip();
-        diffuseColourBuffer.flip();
-        normalBuffer.flip();
-        texCoordBuffer.flip();
-        selectionCodeBuffer.flip();
+    /**
+     * Frees the textures belonging to this TerrainSection.
+     * 
+     * The shared mesh is not affected, and shared textures are only freed
+     * once no TerrainSections are using them. Any changes that have not yet been
+     * sent to the GPU are discarded, so the TerrainSection should be saved
+     * (if necessary) before this is called.
+     * 
+     * This must be called on the rendering thread.
+     */
+    void delete() {
+        if (sharedTextures != null){
+            sharedTextures.release();
+            sharedTextures = null;
+        } else if (textureLayer != -1){
+            TerrainTextureArena.free(textureLayer);
+        }
+        textureLayer = -1;
+        dirtyHeights.clear();
+        dirtyTiles.clear();
+    }
 
-        // Create VAO and select (bind to) it
-        vaoId = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vaoId);
+    /**
+     * Creates the mesh shared by every TerrainSection, along with its index
+     * buffer and VAO.
+     * 
+     * The mesh contains the x- and z-positions of every vertex, and the
+     * offset of each skirt vertex below the surface; the heights are added
+     * by the vertex shader.
+     */
+    private static void createMesh() {
 
-        // Create VBO and fill it with vertex positions
-        vboIdPositions = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdPositions);
-        GL15.glBufferData(
-                GL15.GL_ARRAY_BUFFER, vertexBuffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_VERTEX,
-                3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        MeshBuilder mesh =
+                new MeshBuilder(VertexFormat.UNTEXTURED, NUM_VERTICES);
 
-        // Create VBO and fill it with vertex normals
-        vboIdNormals = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdNormals);
-        GL15.glBufferData(
-                GL15.GL_ARRAY_BUFFER, normalBuffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_VERTEX_NORMAL,
-                3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        for (int z = 0; z < NUM_VERTICES_PER_ROW; z++){
+            for (int x = 0; x < NUM_VERTICES_PER_ROW; x++){
+                addMeshVertex(mesh, getGridVertex(x, z), x, z, 0);
+            }
+        }
+        for (int edge = 0; edge < NUM_EDGES; edge++){
+            for (int i = 0; i < NUM_VERTICES_PER_ROW; i++){
+                addMeshVertex(mesh, getSkirtVertex(edge, i),
+                        getEdgeX(edge, i), getEdgeZ(edge, i), -SKIRT_DEPTH);
+            }
+        }
 
-        // Create VBO and fill it with vertex colours (ambient)
-        vboIdAmbientColours = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdAmbientColours);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, ambientColourBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(
-                Shaders.ATTR_MATERIAL_AMBIENT_COLOUR,
-                3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        iboId = createIndexBuffer();
 
-        // Create VBO and fill it with vertex colours (diffuse)
-        vboIdDiffuseColours = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdDiffuseColours);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, diffuseColourBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(
-                Shaders.ATTR_MATERIAL_DIFFUSE_COLOUR,
-                3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        // Create VAO and select (bind to) it
+        meshVaoId = GL30.glGenVertexArrays();
+        GLState.bindVertexArray(meshVaoId);
 
-        // Create VBO and fill it with vertex texture co-ordinates
-        vboIdTexCoords = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdTexCoords);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, texCoordBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_TEXTURE_COORDS,
-                2, GL11.GL_FLOAT, false, 0, 0);
+        // Create VBO and fill it with vertex data
+        meshVboId = mesh.createVbo(GL15.GL_STATIC_DRAW);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, meshVboId);
+        VertexFormat.UNTEXTURED.setupAttributes();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
 
-        // Create VBO and fill it with vertex selection codes
-        vboIdSelectionCodes = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdSelectionCodes);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, selectionCodeBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(Shaders.ATTR_SELECTION_CODE,
-                3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
+        // Bind the index buffer; the VAO remembers this binding
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, iboId);
 
-        // Deselect the VAO once we're done setting vertex attribute data
-        GL30.glBindVertexArray(0);
+        // Deselect the VAO once we're done setting vertex attribute data.
+        // The index buffer must not be deselected until after this point,
+        // otherwise the VAO would forget about it.
+        GLState.bindVertexArray(0);
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
     }
 
     /**
-     * Creates the vertex at the given co-ordinates, if it does not already exist.
+     * Creates the index buffer used to draw every TerrainSection.
      * 
-     * @param tileX
-     * @param tileZ
-     * @param offsetX 0 = top of tile, 1 = bottom of tile
-     * @param offsetZ 0 = top of tile, 1 = bottom of tile
+     * @return The ID of the new buffer.
      */
-    private void createVertex(int tileX, int tileZ, int offsetX, int offsetZ) {
-        
-        int vx = tileX + offsetX;
-        int vz = tileZ + offsetZ;
-        Vertex v = vertices[vx][vz];
-        
-        if (v != null){
-            // Vertex already exists
-            return;
+    private static int createIndexBuffer() {
+
+        ByteBuffer stagingBuffer =
+                StagingBufferPool.acquire(NUM_INDICES * Short.BYTES);
+        ShortBuffer indexBuffer = stagingBuffer.asShortBuffer();
+
+        for (int lod = 0; lod < NUM_LOD_LEVELS; lod++){
+            int numTilesPerRow = getNumTilesPerRow(lod);
+            int step = getTileStep(lod);
+            
+            /*
+             * At lower levels of detail, each "tile" covers a square block
+             * of the real tiles, so we skip the vertices in between.
+             */
+            for (int z = 0; z < numTilesPerRow; z++){
+                for (int x = 0; x < numTilesPerRow; x++){
+                    int gridX = x * step;
+                    int gridZ = z * step;
+                    addQuadToIndexBuffer(indexBuffer,
+                            getGridVertex(gridX,        gridZ),
+                            getGridVertex(gridX + step, gridZ),
+                            getGridVertex(gridX,        gridZ + step),
+                            getGridVertex(gridX + step, gridZ + step),
+                            isDiagonalFlipped(x, z));
+                }
+            }
+            
+            // Each segment of the skirt hangs down from one edge of a tile
+            for (int edge = 0; edge < NUM_EDGES; edge++){
+                for (int i = 0; i < numTilesPerRow; i++){
+                    int start = i * step;
+                    int end = start + step;
+                    addQuadToIndexBuffer(indexBuffer,
+                            getGridVertex(getEdgeX(edge, start),
+                                    getEdgeZ(edge, start)),
+                            getGridVertex(getEdgeX(edge, end),
+                                    getEdgeZ(edge, end)),
+                            getSkirtVertex(edge, start),
+                            getSkirtVertex(edge, end),
+                            false);
+                }
+            }
         }
 
-        // Create new vertex
-        Vector3f pos = new Vector3f(
-                vx * TILE_WIDTH,
-                0,
-                vz * TILE_WIDTH);
-        // For now our terrain doesn't have any special lighting properties
-        Vector3f ambientColour = new Vector3f(1.0f, 1.0f, 1.0f);
-        Vector3f diffuseColour = new Vector3f(1.0f, 1.0f, 1.0f);
-        v = new Vertex(pos, ambientColour, diffuseColour);
-        vertices[vx][vz] = v;
+        // Prepare the buffer for reading
+        indexBuffer.flip();
+
+        int id = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+        GL15.glBufferData(
+                GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL15.GL_STATIC_DRAW);
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0); // Deselect
+        StagingBufferPool.release(stagingBuffer);
+        
+        return id;
     }
 
     /**
-     * Populates the various buffers for the tile at the given co-ordinates.
+     * Adds the indices of the 2 triangles that make up a quad to the index
+     * buffer.
      * 
-     * @param tileX
-     * @param tileZ
+     * @param indexBuffer
+     * @param topLeftIndex
+     * @param topRightIndex
+     * @param bottomLeftIndex
+     * @param bottomRightIndex
      * @param flipDiagonal
      */
-    private void addTileToBuffers(int tileX, int tileZ, boolean flipDiagonal) {
+    private static void addQuadToIndexBuffer(ShortBuffer indexBuffer,
+            int topLeftIndex, int topRightIndex,
+            int bottomLeftIndex, int bottomRightIndex,
+            boolean flipDiagonal) {
 
-        int id = tileIds[tileX][tileZ];
-        
-        /*
-         * Calculate the texture co-ordinates (relative to the texture size)
-         */
-        
-        // Calculate the co-ordinates of the desired tile within the texture
-        int texTileX = id % TEXTURE_TILES_X;
-        int texTileY = id / TEXTURE_TILES_X;
-        
-        // Calculate the pixel co-ordinates of the tile within the texture,
-        // add or subtract 0.5 (half-pixel correction), and divide by the 
-        // texture size to get the relative texture co-ordinates.
-        float texCoordX1 = (texTileX * TEXTURE_TILE_WIDTH + 0.5f) / TEXTURE_WIDTH;
-        float texCoordY1 = (texTileY * TEXTURE_TILE_HEIGHT + 0.5f) / TEXTURE_HEIGHT;
-        float texCoordX2 = ((texTileX + 1) * TEXTURE_TILE_WIDTH  - 0.5f) / TEXTURE_WIDTH;
-        float texCoordY2 = ((texTileY + 1) * TEXTURE_TILE_HEIGHT - 0.5f) / TEXTURE_HEIGHT;
-        
-        Vertex topLeft     = vertices[tileX][tileZ];
-        Vertex topRight    = vertices[tileX + 1][tileZ];
-        Vertex bottomLeft  = vertices[tileX][tileZ + 1];
-        Vertex bottomRight = vertices[tileX + 1][tileZ + 1];
+        short topLeft     = (short) topLeftIndex;
+        short topRight    = (short) topRightIndex;
+        short bottomLeft  = (short) bottomLeftIndex;
+        short bottomRight = (short) bottomRightIndex;
         
         /*
          * We have to take care to add the vertices in a counter-
          * clockwise order so that the terrain is facing the right way.
          */
-        
+
         if (flipDiagonal){
             // Bottom-left triangle
-            addVertex(topLeft, tileX, tileZ, texCoordX1, texCoordY1);
-            addVertex(bottomLeft, tileX, tileZ, texCoordX1, texCoordY2);
-            addVertex(bottomRight, tileX, tileZ, texCoordX2, texCoordY2);
-            
+            indexBuffer.put(topLeft);
+            indexBuffer.put(bottomLeft);
+            indexBuffer.put(bottomRight);
+
             // Top-right triangle
-            addVertex(bottomRight, tileX, tileZ, texCoordX2, texCoordY2);
-            addVertex(topRight, tileX, tileZ, texCoordX2, texCoordY1);
-            addVertex(topLeft, tileX, tileZ, texCoordX1, texCoordY1);
+            indexBuffer.put(bottomRight);
+            indexBuffer.put(topRight);
+            indexBuffer.put(topLeft);
         } else {
             // Top-left triangle
-            addVertex(topLeft, tileX, tileZ, texCoordX1, texCoordY1);
-            addVertex(bottomLeft, tileX, tileZ, texCoordX1, texCoordY2);
-            addVertex(topRight, tileX, tileZ, texCoordX2, texCoordY1);
+            indexBuffer.put(topLeft);
+            indexBuffer.put(bottomLeft);
+            indexBuffer.put(topRight);
 
             // Bottom-right triangle
-            addVertex(topRight, tileX, tileZ, texCoordX2, texCoordY1);
-            addVertex(bottomLeft, tileX, tileZ, texCoordX1, texCoordY2);
-            addVertex(bottomRight, tileX, tileZ, texCoordX2, texCoordY2);
+            indexBuffer.put(topRight);
+            indexBuffer.put(bottomLeft);
+            indexBuffer.put(bottomRight);
         }
     }
 
     /**
-     * Adds the properties of the given Vertex to the appropriate buffers.
+     * Determines the direction of the diagonal that splits the given tile.
      * 
-     * The texture co-ordinates are supplied as separate parameters as the
-     * texture is a property of the tile rather than the vertex.
+     * We alternate the diagonals in a checkerboard pattern.
      * 
-     * @param v
      * @param tileX
      * @param tileZ
-     * @param texCoordX
-     * @param texCoordY
-     */
-    private void addVertex(Vertex v, float tileX, float tileZ, 
-            float texCoordX, float texCoordY) {
-
-        Vector3f pos = v.getPos();
-        vertexBuffer.put(pos.x);
-        vertexBuffer.put(pos.y);
-        vertexBuffer.put(pos.z);
-
-        Vector3f normal = v.getNormal();
-        normalBuffer.put(normal.x);
-        normalBuffer.put(normal.y);
-        normalBuffer.put(normal.z);
-
-        Vector3f ambientColour = v.getAmbientColour();
-        ambientColourBuffer.put(ambientColour.x);
-        ambientColourBuffer.put(ambientColour.y);
-        ambientColourBuffer.put(ambientColour.z);
-
-        Vector3f diffuseColour = v.getDiffuseColour();
-        diffuseColourBuffer.put(diffuseColour.x);
-        diffuseColourBuffer.put(diffuseColour.y);
-        diffuseColourBuffer.put(diffuseColour.z);
-        
-        texCoordBuffer.put(texCoordX);
-        texCoordBuffer.put(texCoordY);
+     * @return True if the diagonal runs from the top-left to the bottom-right
+     * of the tile, false if it runs from the top-right to the bottom-left.
+     */
+    private static boolean isDiagonalFlipped(int tileX, int tileZ) {
+        return (tileX + tileZ) % 2 == 1;
+    }
 
-        // We divide by 255 because our shader expects our colours to be
-        // floats in the range 0-1.
-        selectionCodeBuffer.put(tileX / 255.0f);
-        selectionCodeBuffer.put(tileZ / 255.0f);
-        selectionCodeBuffer.put(0); // Unused
+    /**
+     * Gets the index of the grid vertex at the given co-ordinates.
+     * 
+     * @param x Grid co-ordinate, from 0 to NUM_TILES_PER_ROW.
+     * @param z Grid co-ordinate, from 0 to NUM_TILES_PER_ROW.
+     * @return
+     */
+    private static int getGridVertex(int x, int z) {
+        return z * NUM_VERTICES_PER_ROW + x;
     }
 
     /**
-     * Calculates the normal vectors at each vertex in the TerrainSection.
+     * Gets the index of the vertex at the bottom of the skirt, below the
+     * given point along an edge.
      * 
-     * See:
-     * http://www.lighthouse3d.com/opengl/terrain/index.php?normals
+     * @param edge
+     * @param i Position along the edge, from 0 to NUM_TILES_PER_ROW.
+     * @return
      */
-    private void recalculateVertexNormals(){
-        
-        // First calculate the normals of each tile
-        Vector3f[][] tileNormals = 
-                new Vector3f[NUM_TILES_PER_ROW][NUM_TILES_PER_ROW];
-        for (int z = 0; z < NUM_TILES_PER_ROW; z++){
-            for (int x = 0; x < NUM_TILES_PER_ROW; x++){
-                tileNormals[x][z] = calculateTileNormal(x, z);
-            }
+    private static int getSkirtVertex(int edge, int i) {
+        return NUM_GRID_VERTICES + edge * NUM_VERTICES_PER_ROW + i;
+    }
+
+    /**
+     * Gets the x grid co-ordinate of the given point along an edge.
+     * 
+     * @param edge
+     * @param i Position along the edge, from 0 to NUM_TILES_PER_ROW.
+     * @return
+     */
+    private static int getEdgeX(int edge, int i) {
+        if (edge == EDGE_WEST){
+            return 0;
+        } else if (edge == EDGE_EAST){
+            return NUM_TILES_PER_ROW;
         }
-        
-        // Now we can calculate the vertex normals from the tile normals
-        for (int z = 0; z < NUM_VERTICES_PER_ROW; z++){
-            for (int x = 0; x < NUM_VERTICES_PER_ROW; x++){
-                Vector3f normal = calculateVertexNormal(x, z, tileNormals);
-                vertices[x][z].setNormal(normal);
-            }
+        return i;
+    }
+
+    /**
+     * Gets the z grid co-ordinate of the given point along an edge.
+     * 
+     * @param edge
+     * @param i Position along the edge, from 0 to NUM_TILES_PER_ROW.
+     * @return
+     */
+    private static int getEdgeZ(int edge, int i) {
+        if (edge == EDGE_NORTH){
+            return 0;
+        } else if (edge == EDGE_SOUTH){
+            return NUM_TILES_PER_ROW;
         }
+        return i;
     }
-    
+
     /**
-     * Calculates the normal vector of the tile at the given co-ordinates.
+     * Gets the number of tiles per row at the given level of detail.
+     * 
+     * @param lod
+     * @return
+     */
+    private static int getNumTilesPerRow(int lod) {
+        return NUM_TILES_PER_ROW >> lod;
+    }
+
+    /**
+     * Gets the number of real tiles spanned by each tile at the given level
+     * of detail.
+     * 
+     * @param lod
+     * @return
+     */
+    private static int getTileStep(int lod) {
+        return 1 << lod;
+    }
+
+    /**
+     * Gets the ID of the VAO used to draw every TerrainSection.
+     * 
+     * This is only valid once a TerrainSection has been uploaded.
+     * 
+     * @return
+     */
+    public static int getMeshVaoId() {
+        return meshVaoId;
+    }
+
+    /**
+     * Gets the number of indices that must be drawn to render a
+     * TerrainSection at the given level of detail.
+     * 
+     * @param lod
+     * @return
+     */
+    public static int getNumIndices(int lod) {
+        return NUM_INDICES_PER_QUAD
+                * (LOD_FIRST_QUAD[lod + 1] - LOD_FIRST_QUAD[lod]);
+    }
+
+    /**
+     * Gets the offset, in bytes, of the first index that must be drawn to
+     * render a TerrainSection at the given level of detail.
+     * 
+     * @param lod
+     * @return
+     */
+    public static long getIndexOffset(int lod) {
+        return NUM_INDICES_PER_QUAD * LOD_FIRST_QUAD[lod] * Short.BYTES;
+    }
+
+    /**
+     * Gets the index of the tile at the given co-ordinates within the
+     * per-tile arrays.
+     * 
+     * @param tileX
+     * @param tileZ
+     * @return
+     */
+    private static int getTileIndex(int tileX, int tileZ) {
+        return tileZ * NUM_TILES_PER_ROW + tileX;
+    }
+
+    /**
+     * Gets the index of the vertex at the given grid co-ordinates within the
+     * per-vertex arrays.
+     * 
+     * The co-ordinates may lie up to 1 vertex outside this TerrainSection,
+     * in the border of the height map.
      * 
      * @param x
      * @param z
      * @return
      */
-    private Vector3f calculateTileNormal(int x, int z) {
-        /*
-         * We calculate the normal from the cross-product of 2 vectors that
-         * are coplanar to the face.
-         * 
-         * Tile (x, z) is bound by the 4 vertices at positions:
-         *     (x, z,
-         *      x + 1, z,
-         *      x, z + 1,
-         *      x + 1, z + 1)
-         * 
-         * To find our coplanar vectors, we just need to find 2 vectors that
-         * link any 2 of these vertices.
-         */
-        Vector3f vert1 = vertices[x][z].getPos();
-        Vector3f vert2 = vertices[x + 1][z].getPos();
-        Vector3f vert3 = vertices[x][z + 1].getPos();
-        
-        Vector3f coplanar1 = new Vector3f();
-        vert1.sub(vert2, coplanar1);
+    private static int getGridIndex(int x, int z) {
+        return (z + 1) * HEIGHT_MAP_WIDTH + (x + 1);
+    }
+
+    /**
+     * Adds the properties of the vertex at the given grid co-ordinates to the
+     * shared mesh.
+     * 
+     * @param mesh
+     * @param index Index of the vertex within the buffer.
+     * @param x
+     * @param z
+     * @param yOffset Offset to apply to the height of the vertex.
+     */
+    private static void addMeshVertex(MeshBuilder mesh, int index,
+            int x, int z, float yOffset) {
+
+        mesh.putPosition(index, x * TILE_WIDTH, yOffset, z * TILE_WIDTH);
+    }
+
+    /**
+     * Gets the height of the vertex at the given grid co-ordinates.
+     * 
+     * @param x
+     * @param z
+     * @return
+     */
+    public float getHeight(int x, int z) {
+        return heights[getGridIndex(x, z)];
+    }
+
+    /**
+     * Changes the height of the vertex at the given grid co-ordinates.
+     * 
+     * The height is clamped to the range MIN_HEIGHT to MAX_HEIGHT.
+     * 
+     * The change is not sent to the GPU until uploadChanges() is called.
+     * Normally, this should be done via a TerrainEdit, which takes care of
+     * this automatically, and also updates the borders of the neighbouring
+     * TerrainSections' height maps.
+     * 
+     * @param x
+     * @param z
+     * @param height
+     * @return True if this TerrainSection has just become dirty.
+     */
+    boolean setHeight(int x, int z, float height) {
+        boolean wasClean = !isDirty();
+        heights[getGridIndex(x, z)] =
+                Math.max(MIN_HEIGHT, Math.min(height, MAX_HEIGHT));
+        dirtyHeights.include(x, z);
+        heightRangeDirty = true;
+        modified = true;
+        return wasClean;
+    }
+
+    /**
+     * Refreshes any part of the border of the height map that lies within
+     * the given range, from the heights of the neighbouring TerrainSections.
+     * 
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @return True if this TerrainSection has just become dirty.
+     */
+    boolean refreshBorderHeights(
+            int minX, int minZ, int maxX, int maxZ) {
         
-        Vector3f coplanar2 = new Vector3f();
-        vert2.sub(vert3, coplanar2);
+        minX = Math.max(minX, -1);
+        minZ = Math.max(minZ, -1);
+        maxX = Math.min(maxX, NUM_VERTICES_PER_ROW);
+        maxZ = Math.min(maxZ, NUM_VERTICES_PER_ROW);
+
+        boolean wasClean = !isDirty();
         
-        Vector3f normal = new Vector3f();
-        coplanar2.cross(coplanar1, normal);
+        for (int z = minZ; z <= maxZ; z++){
+            for (int x = minX; x <= maxX; x++){
+                if (x >= 0 && x <= NUM_TILES_PER_ROW
+                        && z >= 0 && z <= NUM_TILES_PER_ROW){
+                    // Not part of the border
+                    continue;
+                }
+                heights[getGridIndex(x, z)] =
+                        getNeighbourHeight(x, z);
+                dirtyHeights.include(x, z);
+            }
+        }
         
-        return normal.normalize();
+        return wasClean && isDirty();
     }
 
     /**
-     * Calculates the normal vector of the vertex at the given co-ordinates.
+     * Gets the height of a vertex just outside this TerrainSection from the
+     * neighbouring TerrainSection.
+     * 
+     * If that TerrainSection is not loaded, we assume that the terrain
+     * continues at the height of our own border.
      * 
      * @param x
      * @param z
-     * @param tileNormals
      * @return
      */
-    private Vector3f calculateVertexNormal(int x, int z,
-            Vector3f[][] tileNormals) {
-        /*
-         * The normal of each vertex is the normalised sum of the normals of the
-         * 4 surrounding tiles.
-         * 
-         * Vertex (x, z) is surrounded by the 4 tiles at positions:
-         *  (x - 1, z - 1,
-         *   x, z - 1,
-         *   x - 1, z,
-         *   x, z)
-         */
-        try {
-            Vector3f normal1 = tileNormals[x - 1][z - 1];
-            Vector3f normal2 = tileNormals[x][z - 1];
-            Vector3f normal3 = tileNormals[x - 1][z];
-            Vector3f normal4 = tileNormals[x][z];
-            return normal1
-                    .add(normal2)
-                    .add(normal3)
-                    .add(normal4)
-                    .normalize();
-        } catch (ArrayIndexOutOfBoundsException ex){
-            // If a vertex is at the edge of a TerrainSection, we assume (for 
-            // now) that the normal points straight up.
-            return new Vector3f(0, 1, 0);
+    private float getNeighbourHeight(int x, int z) {
+        
+        int offsetX = 0;
+        if (x < 0){
+            offsetX = -1;
+        } else if (x > NUM_TILES_PER_ROW){
+            offsetX = 1;
+        }
+        
+        int offsetZ = 0;
+        if (z < 0){
+            offsetZ = -1;
+        } else if (z > NUM_TILES_PER_ROW){
+            offsetZ = 1;
+        }
+        
+        TerrainSection neighbour = getNeighbour(offsetX, offsetZ);
+        
+        if (neighbour == null){
+            x = Math.max(0, Math.min(x, NUM_TILES_PER_ROW));
+            z = Math.max(0, Math.min(z, NUM_TILES_PER_ROW));
+            return heights[getGridIndex(x, z)];
         }
+        
+        return neighbour.getHeight(
+                x - offsetX * NUM_TILES_PER_ROW,
+                z - offsetZ * NUM_TILES_PER_ROW);
     }
 
     /**
-     * Creates a unique selection code to identify this TerrainSection.
+     * Determines whether this TerrainSection has any changes that have not
+     * been sent to the GPU.
      * 
-     * See MousePicker for more details!
+     * @return
+     */
+    private boolean isDirty() {
+        return !dirtyHeights.isEmpty() || !dirtyTiles.isEmpty();
+    }
+
+    /**
+     * Gets the layer of the TerrainTextureArena holding the height map and
+     * tile map of this TerrainSection.
      * 
-     * @param playerSectionX The co-ordinates of the player's current section.
-     * @param playerSectionZ The co-ordinates of the player's current section.
      * @return
      */
-    public Vector3f createSelectionCode(int playerSectionX, int playerSectionZ) {
+    public int getTextureLayer() {
+        return textureLayer;
+    }
 
-        /*
-         * The section code is only 3 bytes long. What we really want to
-         * encode in these bytes is this:
-         * 
-         * 1) Terrain identifier (constant)
-         * 2) Section X
-         * 3) Section Y
-         * 
-         * However, this would only allow up to 255 clickable sections in
-         * each axis. Therefore we instead use a value relative to the
-         * player's current section co-ordinates.
-         * 
-         * We add 128 to ensure that the value is always positive, as
-         * negative numbers seem to be problematic (OpenGL reads the values
-         * as unsigned bytes). We then subtract this same value later.
-         */
-        int offsetX = (byte) (sectionX - playerSectionX) + 128;
-        int offsetZ = (byte) (sectionZ - playerSectionZ) + 128;
-        
-        // We divide by 255 because our shader expects our colours to be
-        // floats in the range 0-1.
-        return new Vector3f(
-                MousePicker.CODE_TERRAIN / 255.0f,
-                offsetX / 255.0f,
-                offsetZ / 255.0f);
+    /**
+     * Determines whether this TerrainSection has been changed since it was
+     * generated, and so needs to be saved when it is unloaded.
+     * 
+     * @return
+     */
+    boolean isModified() {
+        return modified;
     }
- 
+
     /**
-     * Changes the tile at the given co-ordinates.
-     * @param tileX
-     * @param tileZ
-     * @param tileId
+     * Gets the lowest point of the mesh, in metres.
+     * 
+     * This includes the skirts, which hang below the lowest vertex.
+     * Together with getMaxHeight(), this gives the vertical extent of the
+     * bounding box of this TerrainSection.
+     * 
+     * @return
      */
-    public void setTile(int tileX, int tileZ, int tileId){
-        int currentTileId = tileIds[tileX][tileZ];
-        if (currentTileId == tileId){
-            // Nothing to do
-            return;
-        }
-        tileIds[tileX][tileZ] = tileId;
-        textureChanged();
+    public float getMinHeight() {
+        refreshHeightRange();
+        return minHeight - SKIRT_DEPTH;
     }
 
     /**
-     * Updates the texture co-ordinate buffer when a tile changes texture.
+     * Gets the highest point of the mesh, in metres.
+     * 
+     * @return
      */
-    private void textureChanged() {
+    public float getMaxHeight() {
+        refreshHeightRange();
+        return maxHeight;
+    }
 
-        // Recreate texture co-ordinate buffer
-        for (int tileZ = 0; tileZ < NUM_TILES_PER_ROW; tileZ++){
-            boolean flipDiagonal = (tileZ % NUM_TILES_PER_ROW == 1);
-            for (int tileX = 0; tileX < NUM_TILES_PER_ROW; tileX++){
-                addTileToTexCoordBuffer(tileX, tileZ, flipDiagonal);
-                // Alternate diagonals
-                flipDiagonal = !flipDiagonal;
+    /**
+     * Recalculates the lowest and highest vertex heights, if any heights
+     * have changed since they were last calculated.
+     */
+    private void refreshHeightRange() {
+        if (!heightRangeDirty){
+            return;
+        }
+        minHeight = MAX_HEIGHT;
+        maxHeight = MIN_HEIGHT;
+        for (int z = 0; z < NUM_VERTICES_PER_ROW; z++){
+            for (int x = 0; x < NUM_VERTICES_PER_ROW; x++){
+                float height = heights[getGridIndex(x, z)];
+                minHeight = Math.min(minHeight, height);
+                maxHeight = Math.max(maxHeight, height);
             }
         }
-        
-        // Prepare buffer for reading
-        texCoordBuffer.flip();
-
-        // Send new data to GPU
-        GL30.glBindVertexArray(vaoId);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboIdTexCoords);
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, texCoordBuffer,
-                GL15.GL_STATIC_DRAW);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // Deselect
-        GL30.glBindVertexArray(0); // Deselect
+        heightRangeDirty = false;
+    }
+
+    public int getSectionX() {
+        return sectionX;
+    }
+
+    public int getSectionZ() {
+        return sectionZ;
     }
 
     /**
-     * Populates the texture co-ordinate buffer for the tile at the given co-ordinates.
-     * @param tileX
-     * @param tileZ
-     * @param flipDiagonal
+     * Gets the loaded TerrainSection at the given offset from this one.
+     * 
+     * @param dx Offset in the x-axis, from -1 to 1.
+     * @param dz Offset in the z-axis, from -1 to 1.
+     * @return The TerrainSection, or null if it is not loaded.
      */
-    private void addTileToTexCoordBuffer(int tileX, int tileZ, boolean flipDiagonal) {
+    public TerrainSection getNeighbour(int dx, int dz) {
+        return neighbours[getNeighbourIndex(dx, dz)];
+    }
 
-        int id = tileIds[tileX][tileZ];
+    /**
+     * Sets the TerrainSection at the given offset from this one.
+     * 
+     * @param dx Offset in the x-axis, from -1 to 1.
+     * @param dz Offset in the z-axis, from -1 to 1.
+     * @param neighbour TerrainSection, or null if it has been unloaded.
+     */
+    void setNeighbour(int dx, int dz, TerrainSection neighbour) {
+        neighbours[getNeighbourIndex(dx, dz)] = neighbour;
+    }
 
-        /*
-         * Calculate the texture co-ordinates (relative to the texture size)
-         */
-        
-        // Calculate the co-ordinates of the desired tile within the texture
-        int texTileX = id % TEXTURE_TILES_X;
-        int texTileY = id / TEXTURE_TILES_X;
-        
-        // Calculate the pixel co-ordinates of the tile within the texture,
-        // add or subtract 0.5 (half-pixel correction), and divide by the 
-        // texture size to get the relative texture co-ordinates.
-        float texCoordX1 = (texTileX * TEXTURE_TILE_WIDTH + 0.5f) / TEXTURE_WIDTH;
-        float texCoordY1 = (texTileY * TEXTURE_TILE_HEIGHT + 0.5f) / TEXTURE_HEIGHT;
-        float texCoordX2 = ((texTileX + 1) * TEXTURE_TILE_WIDTH  - 0.5f) / TEXTURE_WIDTH;
-        float texCoordY2 = ((texTileY + 1) * TEXTURE_TILE_HEIGHT - 0.5f) / TEXTURE_HEIGHT;
-        
-        Vertex topLeft     = vertices[tileX][tileZ];
-        Vertex topRight    = vertices[tileX + 1][tileZ];
-        Vertex bottomLeft  = vertices[tileX][tileZ + 1];
-        Vertex bottomRight = vertices[tileX + 1][tileZ + 1];
-        
-        /*
-         * We have to take care to add the vertices in a counter-
-         * clockwise order so that the terrain is facing the right way.
-         */
-        
-        if (flipDiagonal){
-            // Bottom-left triangle
-            addVertexTexture(bottomRight, texCoordX2, texCoordY2);
-            addVertexTexture(bottomLeft, texCoordX1, texCoordY2);
-            addVertexTexture(topLeft, texCoordX1, texCoordY1);
-            
-            // Top-right triangle
-            addVertexTexture(topLeft, texCoordX1, texCoordY1);
-            addVertexTexture(topRight, texCoordX2, texCoordY1);
-            addVertexTexture(bottomRight, texCoordX2, texCoordY2);
-        } else {
-            // Top-left triangle
-            addVertexTexture(topRight, texCoordX2, texCoordY1);
-            addVertexTexture(bottomLeft, texCoordX1, texCoordY2);
-            addVertexTexture(topLeft, texCoordX1, texCoordY1);
+    private static int getNeighbourIndex(int dx, int dz) {
+        return (dz + 1) * 3 + (dx + 1);
+    }
 
-            // Bottom-right triangle
-            addVertexTexture(bottomRight, texCoordX2, texCoordY2);
-            addVertexTexture(bottomLeft, texCoordX1, texCoordY2);
-            addVertexTexture(topRight, texCoordX2, texCoordY1);
+    @Override
+    public Texture getTexture() {
+        return getSharedTexture();
+    }
+
+    /**
+     * Gets the texture shared by all TerrainSections, loading it if
+     * necessary.
+     * 
+     * This must be called on the rendering thread.
+     * 
+     * @return
+     */
+    public static Texture getSharedTexture() {
+        if (texture == null){
+            texture = new Texture(TEXTURE_FILENAME, false);
+        }
+        return texture;
+    }
+
+    /**
+     * Changes the tile at the given co-ordinates.
+     * 
+     * The change is not sent to the GPU until uploadChanges() is called.
+     * Normally, this should be done via a TerrainEdit, which takes care of
+     * this automatically.
+     * 
+     * @param tileX
+     * @param tileZ
+     * @param tileId
+     * @return True if this is the first change since the last upload, i.e.
+     * this TerrainSection has just become dirty.
+     */
+    boolean setTile(int tileX, int tileZ, int tileId){
+        int tileIndex = getTileIndex(tileX, tileZ);
+        int currentTileId = tileIds.get(tileIndex);
+        if (currentTileId == tileId){
+            // Nothing to do
+            return false;
         }
+        boolean wasClean = !isDirty();
+        tileIds.put(tileIndex, (byte) tileId);
+        dirtyTiles.include(tileX, tileZ);
+        modified = true;
+        return wasClean;
     }
 
     /**
-     * Adds the properties of the given Vertex to the texture co-ordinate buffer.
+     * Sends any changes to the GPU.
      * 
-     * The texture co-ordinates are supplied as separate parameters as the
-     * texture is a property of the tile rather than the vertex.
+     * Only the changed region of each texture is uploaded. Usually, this is
+     * just a handful of texels.
      * 
-     * @param v
-     * @param texCoordX
-     * @param texCoordY
+     * If this TerrainSection is using shared textures, it first gets its own
+     * copies, so that the other TerrainSections are unaffected.
      */
-    private void addVertexTexture(Vertex v, float texCoordX, float texCoordY) {
-        texCoordBuffer.put(texCoordX);
-        texCoordBuffer.put(texCoordY);
+    void uploadChanges() {
+        
+        if (sharedTextures != null && isDirty()){
+            if (sharedTextures.matches(tileIds.get(0), heights[0])
+                    && isUniform()){
+                // Nothing has really changed (e.g. the border was refreshed
+                // from an identical neighbour)
+                dirtyHeights.clear();
+                dirtyTiles.clear();
+                return;
+            }
+            // Stop sharing, and create our own textures with the changes
+            // already applied
+            sharedTextures.release();
+            sharedTextures = null;
+            createTextures();
+            dirtyHeights.clear();
+            dirtyTiles.clear();
+            return;
+        }
+        
+        if (!dirtyHeights.isEmpty()){
+            // Texel co-ordinates are offset by the border
+            TerrainTextureArena.uploadHeights(textureLayer,
+                    dirtyHeights.getMinX() + 1, dirtyHeights.getMinZ() + 1,
+                    dirtyHeights.getWidth(), dirtyHeights.getHeight(),
+                    heights);
+            dirtyHeights.clear();
+        }
+        
+        if (!dirtyTiles.isEmpty()){
+            TerrainTextureArena.uploadTileIds(textureLayer,
+                    dirtyTiles.getMinX(), dirtyTiles.getMinZ(),
+                    dirtyTiles.getWidth(), dirtyTiles.getHeight(),
+                    tileIds);
+            dirtyTiles.clear();
+        }
     }
 
 }
@@ -0,0 +1,90 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * Compact copy of the contents of a TerrainSection.
+ *
+ * This is produced by a TerrainGenerator when a TerrainSection is first
+ * created, and kept for TerrainSections that have been modified and then
+ * unloaded, so that they can be restored later without holding on to any
+ * GPU resources.
+ */
+public class TerrainSectionData {
+
+    private int sectionX, sectionZ;
+
+    /**
+     * Tile IDs, indexed by (tileZ * NUM_TILES_PER_ROW + tileX).
+     */
+    private byte[] tileIds;
+
+    /**
+     * Vertex heights, indexed by (z * NUM_VERTICES_PER_ROW + x).
+     *
+     * This does not include the border of the height map, since that is
+     * taken from the neighbouring TerrainSections.
+     */
+    private float[] heights;
+
+    /**
+     * Creates a TerrainSectionData with every tile set to TILE_WATER, and
+     * every vertex at sea level.
+     *
+     * @param sectionX
+     * @param sectionZ
+     */
+    public TerrainSectionData(int sectionX, int sectionZ) {
+        this(sectionX, sectionZ,
+                new byte[TerrainSection.NUM_TILES_PER_ROW
+                        * TerrainSection.NUM_TILES_PER_ROW],
+                new float[TerrainSection.NUM_VERTICES_PER_ROW
+                        * TerrainSection.NUM_VERTICES_PER_ROW]);
+    }
+
+    public TerrainSectionData(int sectionX, int sectionZ,
+            byte[] tileIds, float[] heights) {
+        this.sectionX = sectionX;
+        this.sectionZ = sectionZ;
+        this.tileIds = tileIds;
+        this.heights = heights;
+    }
+
+    public int getSectionX() {
+        return sectionX;
+    }
+
+    public int getSectionZ() {
+        return sectionZ;
+    }
+
+    /**
+     * Changes the tile at the given co-ordinates.
+     *
+     * @param tileX
+     * @param tileZ
+     * @param tileId
+     */
+    public void setTile(int tileX, int tileZ, int tileId) {
+        tileIds[tileZ * TerrainSection.NUM_TILES_PER_ROW + tileX] =
+                (byte) tileId;
+    }
+
+    /**
+     * Changes the height of the vertex at the given co-ordinates.
+     *
+     * @param x
+     * @param z
+     * @param height
+     */
+    public void setHeight(int x, int z, float height) {
+        heights[z * TerrainSection.NUM_VERTICES_PER_ROW + x] = height;
+    }
+
+    public byte[] getTileIds() {
+        return tileIds;
+    }
+
+    public float[] getHeights() {
+        return heights;
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.danjb.otherdom.client.scene;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class responsible for building TerrainSections in the background.
+ * 
+ * Building a TerrainSection involves generating its tiles and heights,
+ * which is too slow to do on the rendering thread without causing a
+ * noticeable hitch. Instead, this work is carried out by a fork/join pool of
+ * worker threads, using a TerrainGenerator.
+ * 
+ * The same pool can also generate whole areas at once (see generateArea()),
+ * splitting them into smaller and smaller batches so that every worker is
+ * kept busy.
+ * 
+ * Only the final steps, joining up the borders with the neighbouring
+ * TerrainSections and sending the textures to the GPU, have to happen on
+ * the rendering thread; see uploadBuiltSections().
+ */
+public class TerrainSectionLoader {
+
+    /**
+     * Number of worker threads used to build TerrainSections.
+     * 
+     * We leave one core free for the rendering thread.
+     */
+    private static final int NUM_WORKER_THREADS = Math.max(1,
+            Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Maximum number of TerrainSections to send to the GPU each frame.
+     * 
+     * This spreads the cost of uploading over several frames when many
+     * sections become ready at once.
+     */
+    private static final int MAX_UPLOADS_PER_FRAME = 2;
+
+    /**
+     * Task that generates a rectangular area of TerrainSections, by
+     * splitting it in half until each half is a single TerrainSection.
+     * 
+     * Each TerrainSection is written to its own slot of the results, so the
+     * output is the same no matter how the work is divided between threads.
+     */
+    private static class GenerateAreaTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private TerrainGenerator generator;
+        private TerrainSectionData[] results;
+        private int resultsWidth;
+        private int areaMinX, areaMinZ;
+        private int minX, minZ, maxX, maxZ;
+
+        public GenerateAreaTask(TerrainGenerator generator,
+                TerrainSectionData[] results, int resultsWidth,
+                int areaMinX, int areaMinZ,
+                int minX, int minZ, int maxX, int maxZ) {
+            this.generator = generator;
+            this.results = results;
+            this.resultsWidth = resultsWidth;
+            this.areaMinX = areaMinX;
+            this.areaMinZ = areaMinZ;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+        }
+
+        @Override
+        protected void compute() {
+            
+            if (minX == maxX && minZ == maxZ){
+                int i = (minZ - areaMinZ) * resultsWidth + (minX - areaMinX);
+                results[i] = generator.generate(minX, minZ);
+                return;
+            }
+            
+            // Split along the longer axis
+            if (maxX - minX >= maxZ - minZ){
+                int midX = (minX + maxX) >> 1;
+                invokeAll(createSubtask(minX, minZ, midX, maxZ),
+                        createSubtask(midX + 1, minZ, maxX, maxZ));
+            } else {
+                int midZ = (minZ + maxZ) >> 1;
+                invokeAll(createSubtask(minX, minZ, maxX, midZ),
+                        createSubtask(minX, midZ + 1, maxX, maxZ));
+            }
+        }
+        
+        private GenerateAreaTask createSubtask(
+                int minX, int minZ, int maxX, int maxZ) {
+            return new GenerateAreaTask(generator, results, resultsWidth,
+                    areaMinX, areaMinZ, minX, minZ, maxX, maxZ);
+        }
+
+    }
+
+    /**
+     * Record of a TerrainSection that could not be built.
+     */
+    private static class FailedSection {
+
+        private int sectionX;
+        private int sectionZ;
+        private RuntimeException cause;
+
+        public FailedSection(int sectionX, int sectionZ,
+                RuntimeException cause) {
+            this.sectionX = sectionX;
+            this.sectionZ = sectionZ;
+            this.cause = cause;
+        }
+
+    }
+
+    /**
+     * Number used to name the next worker thread.
+     */
+    private static final AtomicInteger nextThreadId = new AtomicInteger();
+
+    /**
+     * Creates threads for the worker pool with recognisable names.
+     * 
+     * Fork/join worker threads are daemon threads, so they do not keep the
+     * application alive.
+     * 
+     * @param pool
+     * @return
+     */
+    private static ForkJoinWorkerThread createWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool
+                .defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("TerrainSectionLoader-" + nextThreadId.getAndIncrement());
+        return thread;
+    }
+
+    /**
+     * Pool of worker threads.
+     * 
+     * This uses async mode, so that individually-requested TerrainSections
+     * are built in the order they were requested (nearest first).
+     */
+    private ForkJoinPool workers = new ForkJoinPool(NUM_WORKER_THREADS,
+            TerrainSectionLoader::createWorkerThread, null, true);
+
+    private TerrainGenerator generator;
+
+    /**
+     * TerrainSections that have been built, but not yet sent to the GPU.
+     */
+    private Queue<TerrainSection> builtSections = 
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * TerrainSections that could not be built, not yet reported to the
+     * World.
+     */
+    private Queue<FailedSection> failedSections =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Co-ordinates of the TerrainSections whose failure has already been
+     * reported.
+     * 
+     * A failed TerrainSection is requested again until it can be built, so
+     * this stops the same error from being reported on every attempt.
+     * 
+     * The values are unused; only the keys matter.
+     */
+    private SectionMap<Boolean> reportedFailures = new SectionMap<>();
+
+    public TerrainSectionLoader(TerrainGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Starts building the TerrainSection at the given co-ordinates.
+     * 
+     * If the TerrainSection cannot be built (e.g. its stored data is
+     * corrupt), the failure is reported to the World by
+     * uploadBuiltSections(), so that it can be requested again.
+     * 
+     * @param sectionX
+     * @param sectionZ
+     * @param savedData Data from which to restore the TerrainSection, if it
+     * was previously modified and unloaded; otherwise null.
+     */
+    public void requestSection(int sectionX, int sectionZ,
+            TerrainSectionData savedData) {
+        workers.execute(() -> {
+            try {
+                builtSections.add(savedData == null
+                        ? new TerrainSection(
+                                generator.generate(sectionX, sectionZ), false)
+                        : new TerrainSection(savedData, true));
+            } catch (RuntimeException ex) {
+                failedSections.add(new FailedSection(sectionX, sectionZ, ex));
+            }
+        });
+    }
+
+    /**
+     * Generates every TerrainSection within the given area, in parallel.
+     * 
+     * This blocks until the whole area has been generated. It can be used to
+     * pre-generate a large world.
+     * 
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @return The generated data, in rows from minZ to maxZ, each from minX
+     * to maxX.
+     */
+    public TerrainSectionData[] generateArea(
+            int minX, int minZ, int maxX, int maxZ) {
+        int width = maxX - minX + 1;
+        int height = maxZ - minZ + 1;
+        TerrainSectionData[] results = new TerrainSectionData[width * height];
+        workers.invoke(new GenerateAreaTask(generator, results, width,
+                minX, minZ, minX, minZ, maxX, maxZ));
+        return results;
+    }
+
+    /**
+     * Sends any TerrainSections that have finished building to the GPU.
+     * 
+     * This must be called on the rendering thread.
+     * 
+     * Any TerrainSections that could not be built are also reported to the
+     * World at this point. The error is only printed the first time each
+     * TerrainSection fails, however many times it is retried.
+     * 
+     * @param world World to which the uploaded TerrainSections are added.
+     */
+    public void uploadBuiltSections(World world) {
+        
+        FailedSection failure;
+        while ((failure = failedSections.poll()) != null){
+            if (!reportedFailures.contains(
+                    failure.sectionX, failure.sectionZ)){
+                reportedFailures.put(
+                        failure.sectionX, failure.sectionZ, true);
+                System.err.println("Error building TerrainSection ("
+                        + failure.sectionX + ", " + failure.sectionZ + "): "
+                        + failure.cause);
+            }
+            world.sectionFailed(failure.sectionX, failure.sectionZ);
+        }
+        
+        for (int i = 0; i < MAX_UPLOADS_PER_FRAME; i++){
+            TerrainSection section = builtSections.poll();
+            if (section == null){
+                break;
+            }
+            reportedFailures.remove(
+                    section.getSectionX(), section.getSectionZ());
+            if (world.addSection(section)){
+                section.uploadMesh();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.danjb.otherdom.client.scene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Directory on disk holding the data of individual TerrainSections.
+ *
+ * Each TerrainSection is kept in its own file, so that any one of them can
+ * be read back without loading the rest. This allows worlds far larger than
+ * the set of TerrainSections loaded at any one time.
+ *
+ * Different TerrainSections may be read and written on different threads at
+ * once.
+ */
+public class TerrainSectionStore {
+
+    private static final String FILE_EXTENSION = ".section";
+
+    private File dir;
+
+    /**
+     * Creates a TerrainSectionStore backed by the given directory.
+     *
+     * The directory is created if it does not already exist.
+     *
+     * @param dir
+     * @throws IOException
+     */
+    public TerrainSectionStore(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Unable to create directory: " + dir);
+        }
+        this.dir = dir;
+    }
+
+    /**
+     * Writes the given data, replacing any data previously stored for the
+     * same TerrainSection.
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(TerrainSectionData data) throws IOException {
+
+        File file = getFile(data.getSectionX(), data.getSectionZ());
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))){
+            out.write(data.getTileIds());
+            for (float height : data.getHeights()){
+                out.writeFloat(height);
+            }
+        }
+    }
+
+    /**
+     * Reads the data of the TerrainSection at the given co-ordinates.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return The data, or null if nothing is stored for this
+     * TerrainSection.
+     * @throws IOException
+     */
+    public TerrainSectionData read(int sectionX, int sectionZ)
+            throws IOException {
+
+        File file = getFile(sectionX, sectionZ);
+        if (!file.isFile()){
+            return null;
+        }
+
+        TerrainSectionData data =
+                new TerrainSectionData(sectionX, sectionZ);
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))){
+            in.readFully(data.getTileIds());
+            float[] heights = data.getHeights();
+            for (int i = 0; i < heights.length; i++){
+                heights[i] = in.readFloat();
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Gets the file in which the TerrainSection at the given co-ordinates is
+     * stored.
+     *
+     * @param sectionX
+     * @param sectionZ
+     * @return
+     */
+    private File getFile(int sectionX, int sectionZ) {
+        return new File(dir, sectionX + "_" + sectionZ + FILE_EXTENSION);
+    }
+
+}
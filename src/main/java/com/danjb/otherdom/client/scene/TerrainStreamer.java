@@ -0,0 +1,120 @@
+package com.danjb.otherdom.client.scene;
+
+/**
+ * Class responsible for deciding which TerrainSections should be loaded.
+ *
+ * TerrainSections within the load radius of the player's current section are
+ * loaded, nearest first. TerrainSections beyond the unload radius are
+ * unloaded, freeing their textures; only the data of modified sections is
+ * kept. This means that memory use stays bounded, however far the player
+ * travels.
+ *
+ * The unload radius is slightly larger than the load radius, so that a
+ * player walking back and forth across a section border does not cause the
+ * same TerrainSections to be loaded and unloaded repeatedly.
+ *
+ * Both radii are measured in whole sections along the furthest axis, so the
+ * loaded area is a square centred on the player's section.
+ */
+public class TerrainStreamer {
+
+    /**
+     * Default number of TerrainSections to load in each direction around the
+     * player's current section.
+     */
+    public static final int DEFAULT_LOAD_RADIUS = 2;
+
+    /**
+     * How much further than the load radius a TerrainSection must be before
+     * it is unloaded.
+     */
+    private static final int UNLOAD_MARGIN = 1;
+
+    private int loadRadius = DEFAULT_LOAD_RADIUS;
+
+    /**
+     * The section co-ordinates around which TerrainSections were last
+     * loaded.
+     */
+    private int centreX, centreZ;
+
+    /**
+     * Whether the loaded TerrainSections need to be re-evaluated, even if the
+     * player has not changed sections.
+     */
+    private boolean refreshNeeded = true;
+
+    /**
+     * Loads and unloads TerrainSections according to the position of the
+     * current player.
+     *
+     * This only does any work when the player moves into a different
+     * section, the load radius changes, or a refresh has been requested.
+     *
+     * This must be called on the rendering thread.
+     *
+     * @param world
+     */
+    void update(World world) {
+
+        Player player = world.getCurrentPlayer();
+        if (player == null){
+            return;
+        }
+
+        int sectionX = player.getSectionX();
+        int sectionZ = player.getSectionZ();
+        if (!refreshNeeded && sectionX == centreX && sectionZ == centreZ){
+            return;
+        }
+        centreX = sectionX;
+        centreZ = sectionZ;
+        refreshNeeded = false;
+
+        world.unloadDistantSections(
+                sectionX, sectionZ, loadRadius + UNLOAD_MARGIN);
+
+        // Request the sections ring by ring, so that those nearest to the
+        // player are built first
+        for (int ring = 0; ring <= loadRadius; ring++){
+            for (int offsetZ = -ring; offsetZ <= ring; offsetZ++){
+                for (int offsetX = -ring; offsetX <= ring; offsetX++){
+                    if (Math.abs(offsetX) != ring && Math.abs(offsetZ) != ring){
+                        // Part of an inner ring
+                        continue;
+                    }
+                    world.requestSection(
+                            sectionX + offsetX, sectionZ + offsetZ);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the next call to update() re-evaluate the loaded TerrainSections,
+     * even if the player has not changed sections.
+     *
+     * This must be called on the rendering thread.
+     */
+    void requestRefresh() {
+        refreshNeeded = true;
+    }
+
+    /**
+     * Sets the number of TerrainSections to load in each direction around
+     * the player's current section.
+     *
+     * The change takes effect the next time the World is updated.
+     *
+     * @param loadRadius
+     */
+    public void setLoadRadius(int loadRadius) {
+        this.loadRadius = Math.max(0, loadRadius);
+        refreshNeeded = true;
+    }
+
+    public int getLoadRadius() {
+        return loadRadius;
+    }
+
+}
@@ -0,0 +1,409 @@
+package com.danjb.otherdom.client.scene;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL30;
+
+import com.danjb.otherdom.client.render.GLState;
+
+/**
+ * Texture arrays holding the height maps and tile maps of every loaded
+ * TerrainSection.
+ *
+ * Each TerrainSection (or group of uniform TerrainSections; see
+ * UniformTerrainTextures) is given one layer of both arrays. Since every
+ * TerrainSection also shares the same mesh, the renderer can bind these
+ * textures once, and draw all the visible TerrainSections together using
+ * instancing, passing the layer of each one as an instance attribute.
+ *
+ * Freed layers are reused. If every layer is in use, both arrays are
+ * replaced with larger ones, and the existing layers are copied across on
+ * the GPU.
+ * 
+ * OpenGL limits the number of layers in an array (to as few as 256), so
+ * once the arrays reach that limit, another pair of arrays is created
+ * alongside them. The renderer then binds each pair in turn, drawing the
+ * TerrainSections whose layers it holds. Layers are identified by a single
+ * index across all the arrays; see getArrayIndex() and getLayerInArray().
+ *
+ * This must only be used on the rendering thread.
+ */
+public class TerrainTextureArena {
+
+    /**
+     * Number of layers in each array when it is first created.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Texture unit used while creating and uploading to the arrays.
+     *
+     * The renderer keeps the arrays bound to their own units between frames
+     * (see TerrainRenderer), so we use a separate unit here rather than
+     * disturbing those bindings.
+     */
+    private static final int UPLOAD_TEXTURE_UNIT = 3;
+
+    /**
+     * IDs of the texture arrays holding the height maps.
+     */
+    private static int[] heightMapsIds = new int[0];
+
+    /**
+     * IDs of the texture arrays holding the tile maps.
+     */
+    private static int[] tileMapsIds = new int[0];
+
+    /**
+     * Number of pairs of arrays in use.
+     */
+    private static int numArrays;
+
+    /**
+     * Number of layers in the newest pair of arrays.
+     *
+     * Every other pair is full, so holds the maximum number of layers.
+     */
+    private static int capacity;
+
+    /**
+     * Maximum number of layers supported by OpenGL, or 0 if not yet known.
+     */
+    private static int maxLayers;
+
+    /**
+     * Stack of layers that are not in use.
+     */
+    private static int[] freeLayers = new int[0];
+
+    private static int numFreeLayers;
+
+    /**
+     * Reserves a layer in both arrays, growing them if necessary.
+     *
+     * The contents of the layer are undefined until they are uploaded.
+     * free() must be called once the layer is no longer needed.
+     *
+     * @return The layer index.
+     */
+    static int allocate() {
+        if (numFreeLayers == 0){
+            if (numArrays == 0 || capacity == getMaxLayers()){
+                addArrays();
+            } else {
+                grow(capacity * 2);
+            }
+        }
+        numFreeLayers--;
+        return freeLayers[numFreeLayers];
+    }
+
+    /**
+     * Returns a layer to the arena, so that it can be reused.
+     *
+     * @param layer
+     */
+    static void free(int layer) {
+        freeLayers[numFreeLayers] = layer;
+        numFreeLayers++;
+    }
+
+    /**
+     * Sends a region of a height map to the GPU.
+     *
+     * @param layer
+     * @param texelX
+     * @param texelZ
+     * @param width
+     * @param height
+     * @param heights Every texel of the height map, in rows of
+     * TerrainSection.HEIGHT_MAP_WIDTH. Only the given region is read.
+     */
+    static void uploadHeights(int layer, int texelX, int texelZ,
+            int width, int height, float[] heights) {
+        uploadRegion(heightMapsIds[getArrayIndex(layer)],
+                getLayerInArray(layer), texelX, texelZ, width, height,
+                TerrainSection.HEIGHT_MAP_WIDTH,
+                GL11.GL_RED, GL11.GL_FLOAT, heights, null);
+    }
+
+    /**
+     * Sends a region of a tile map to the GPU.
+     *
+     * @param layer
+     * @param tileX
+     * @param tileZ
+     * @param width
+     * @param height
+     * @param tileIds Every tile of the tile map, in rows of
+     * TerrainSection.NUM_TILES_PER_ROW. Only the given region is read.
+     */
+    static void uploadTileIds(int layer, int tileX, int tileZ,
+            int width, int height, ByteBuffer tileIds) {
+        uploadRegion(tileMapsIds[getArrayIndex(layer)],
+                getLayerInArray(layer), tileX, tileZ, width, height,
+                TerrainSection.NUM_TILES_PER_ROW,
+                GL30.GL_RED_INTEGER, GL11.GL_UNSIGNED_BYTE, null, tileIds);
+    }
+
+    /**
+     * Sends a region of one layer of a texture array to the GPU.
+     *
+     * The texel data is read directly from the full array / buffer that
+     * backs the layer, using the pixel unpacking parameters to skip the
+     * unchanged texels.
+     *
+     * @param textureId
+     * @param layer Index of the layer within the array.
+     * @param texelX
+     * @param texelZ
+     * @param width
+     * @param height
+     * @param rowLength Width of the texture, in texels.
+     * @param format
+     * @param type
+     * @param floatData Texel data, if stored as floats.
+     * @param byteData Texel data, if stored as bytes.
+     */
+    private static void uploadRegion(int textureId, int layer,
+            int texelX, int texelZ, int width, int height, int rowLength,
+            int format, int type, float[] floatData, ByteBuffer byteData) {
+
+        // Tell OpenGL where to find the region within the data
+        GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, rowLength);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, texelX);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, texelZ);
+
+        GLState.bindTexture(UPLOAD_TEXTURE_UNIT,
+                GL30.GL_TEXTURE_2D_ARRAY, textureId);
+        if (floatData != null){
+            GL12.glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0,
+                    texelX, texelZ, layer, width, height, 1,
+                    format, type, floatData);
+        } else {
+            GL12.glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0,
+                    texelX, texelZ, layer, width, height, 1,
+                    format, type, byteData);
+        }
+
+        // Restore the defaults
+        GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, 0);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, 0);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, 0);
+    }
+
+    /**
+     * Creates a new pair of arrays, once the existing ones are full.
+     */
+    private static void addArrays() {
+
+        if (numArrays == heightMapsIds.length){
+            int newLength = Math.max(1, numArrays * 2);
+            heightMapsIds = Arrays.copyOf(heightMapsIds, newLength);
+            tileMapsIds = Arrays.copyOf(tileMapsIds, newLength);
+        }
+
+        int newCapacity = Math.min(INITIAL_CAPACITY, getMaxLayers());
+        heightMapsIds[numArrays] = createHeightMaps(newCapacity);
+        tileMapsIds[numArrays] = createTileMaps(newCapacity);
+        numArrays++;
+
+        capacity = 0;
+        addFreeLayers(newCapacity);
+    }
+
+    /**
+     * Replaces the newest pair of arrays with larger ones, keeping the
+     * existing layers.
+     *
+     * @param newCapacity This is limited to the maximum number of layers.
+     */
+    private static void grow(int newCapacity) {
+
+        newCapacity = Math.min(newCapacity, getMaxLayers());
+        int array = numArrays - 1;
+
+        int newHeightMapsId = createHeightMaps(newCapacity);
+        int newTileMapsId = createTileMaps(newCapacity);
+
+        copyLayers(heightMapsIds[array], newHeightMapsId,
+                TerrainSection.HEIGHT_MAP_WIDTH);
+        copyLayers(tileMapsIds[array], newTileMapsId,
+                TerrainSection.NUM_TILES_PER_ROW);
+        GLState.deleteTexture(heightMapsIds[array]);
+        GLState.deleteTexture(tileMapsIds[array]);
+
+        heightMapsIds[array] = newHeightMapsId;
+        tileMapsIds[array] = newTileMapsId;
+
+        addFreeLayers(newCapacity);
+    }
+
+    /**
+     * Adds the layers of the newest pair of arrays, from the current
+     * capacity up to the given capacity, to the free list.
+     *
+     * @param newCapacity
+     */
+    private static void addFreeLayers(int newCapacity) {
+
+        int firstLayer = (numArrays - 1) * getMaxLayers();
+        int newTotal = firstLayer + newCapacity;
+        if (freeLayers.length < newTotal){
+            freeLayers = Arrays.copyOf(freeLayers, newTotal);
+        }
+
+        // Lowest on top
+        for (int layer = newCapacity - 1; layer >= capacity; layer--){
+            free(firstLayer + layer);
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Creates an empty texture array for height maps.
+     *
+     * @param numLayers
+     * @return
+     */
+    private static int createHeightMaps(int numLayers) {
+        return createArray(GL30.GL_R32F,
+                TerrainSection.HEIGHT_MAP_WIDTH, numLayers,
+                GL11.GL_RED, GL11.GL_FLOAT);
+    }
+
+    /**
+     * Creates an empty texture array for tile maps.
+     *
+     * @param numLayers
+     * @return
+     */
+    private static int createTileMaps(int numLayers) {
+        return createArray(GL30.GL_R8UI,
+                TerrainSection.NUM_TILES_PER_ROW, numLayers,
+                GL30.GL_RED_INTEGER, GL11.GL_UNSIGNED_BYTE);
+    }
+
+    /**
+     * Creates an empty texture array.
+     *
+     * @param internalFormat
+     * @param width Width / height of each layer, in texels.
+     * @param numLayers
+     * @param format
+     * @param type
+     * @return
+     */
+    private static int createArray(int internalFormat, int width,
+            int numLayers, int format, int type) {
+        int id = GL11.glGenTextures();
+        GLState.bindTexture(UPLOAD_TEXTURE_UNIT,
+                GL30.GL_TEXTURE_2D_ARRAY, id);
+        GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, internalFormat,
+                width, width, numLayers, 0, format, type, (ByteBuffer) null);
+        // Texels are read directly (without filtering), but the texture is
+        // not complete without these
+        GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY,
+                GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+        GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY,
+                GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+        return id;
+    }
+
+    /**
+     * Copies every layer of the newest texture array into another, on the
+     * GPU.
+     *
+     * Each layer of the source is attached to a framebuffer in turn, from
+     * which it is copied into the same layer of the destination.
+     *
+     * @param srcId
+     * @param dstId
+     * @param width Width / height of each layer, in texels.
+     */
+    private static void copyLayers(int srcId, int dstId, int width) {
+        int fboId = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, fboId);
+        GLState.bindTexture(UPLOAD_TEXTURE_UNIT,
+                GL30.GL_TEXTURE_2D_ARRAY, dstId);
+        for (int layer = 0; layer < capacity; layer++){
+            GL30.glFramebufferTextureLayer(GL30.GL_READ_FRAMEBUFFER,
+                    GL30.GL_COLOR_ATTACHMENT0, srcId, 0, layer);
+            GL12.glCopyTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0,
+                    0, 0, layer, 0, 0, width, width);
+        }
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, 0);
+        GL30.glDeleteFramebuffers(fboId);
+    }
+
+    /**
+     * Gets the maximum number of layers each array can hold.
+     * 
+     * This must be called on the rendering thread.
+     * 
+     * @return
+     */
+    public static int getMaxLayers() {
+        if (maxLayers == 0){
+            maxLayers = GL11.glGetInteger(GL30.GL_MAX_ARRAY_TEXTURE_LAYERS);
+        }
+        return maxLayers;
+    }
+
+    /**
+     * Gets the number of pairs of arrays in use.
+     *
+     * @return
+     */
+    public static int getNumArrays() {
+        return numArrays;
+    }
+
+    /**
+     * Gets the pair of arrays containing the given layer.
+     *
+     * This must be called on the rendering thread.
+     *
+     * @param layer
+     * @return
+     */
+    public static int getArrayIndex(int layer) {
+        return layer / getMaxLayers();
+    }
+
+    /**
+     * Gets the index of the given layer within its pair of arrays.
+     *
+     * This must be called on the rendering thread.
+     *
+     * @param layer
+     * @return
+     */
+    public static int getLayerInArray(int layer) {
+        return layer % getMaxLayers();
+    }
+
+    /**
+     * Gets the ID of a texture array holding height maps.
+     *
+     * @param array
+     * @return
+     */
+    public static int getHeightMapsId(int array) {
+        return heightMapsIds[array];
+    }
+
+    /**
+     * Gets the ID of a texture array holding tile maps.
+     *
+     * @param array
+     * @return
+     */
+    public static int getTileMapsId(int array) {
+        return tileMapsIds[array];
+    }
+
+}
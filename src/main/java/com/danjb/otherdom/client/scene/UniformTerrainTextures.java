@@ -0,0 +1,125 @@
+package com.danjb.otherdom.client.scene;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.danjb.otherdom.client.render.StagingBufferPool;
+
+/**
+ * Height map and tile map shared by every uniform TerrainSection with the
+ * same height and tile.
+ *
+ * These textures occupy a single layer of the TerrainTextureArena. They are
+ * reference-counted: the layer is allocated when the first TerrainSection
+ * acquires them, and freed when the last one releases them.
+ * A TerrainSection must never modify them; instead, it should create its own
+ * textures when it is first changed.
+ *
+ * This must only be used on the rendering thread.
+ */
+class UniformTerrainTextures {
+
+    /**
+     * Shared textures currently in use, keyed by getKey(tileId, height).
+     */
+    private static final Map<Long, UniformTerrainTextures> instances =
+            new HashMap<>();
+
+    private int tileId;
+    private float height;
+
+    /**
+     * Layer of the TerrainTextureArena holding these textures.
+     */
+    private int layer;
+
+    /**
+     * Number of TerrainSections using these textures.
+     */
+    private int refCount;
+
+    private UniformTerrainTextures(int tileId, float height) {
+        this.tileId = tileId;
+        this.height = height;
+
+        float[] heights = new float[TerrainSection.HEIGHT_MAP_WIDTH
+                * TerrainSection.HEIGHT_MAP_WIDTH];
+        Arrays.fill(heights, height);
+        layer = TerrainTextureArena.allocate();
+        TerrainTextureArena.uploadHeights(layer, 0, 0,
+                TerrainSection.HEIGHT_MAP_WIDTH,
+                TerrainSection.HEIGHT_MAP_WIDTH,
+                heights);
+
+        int numTiles = TerrainSection.NUM_TILES_PER_ROW
+                * TerrainSection.NUM_TILES_PER_ROW;
+        ByteBuffer tileIds = StagingBufferPool.acquire(numTiles);
+        for (int i = 0; i < numTiles; i++){
+            tileIds.put(i, (byte) tileId);
+        }
+        TerrainTextureArena.uploadTileIds(layer, 0, 0,
+                TerrainSection.NUM_TILES_PER_ROW,
+                TerrainSection.NUM_TILES_PER_ROW,
+                tileIds);
+        StagingBufferPool.release(tileIds);
+    }
+
+    /**
+     * Gets the shared textures for the given tile and height, creating them
+     * if necessary.
+     *
+     * release() must be called once the textures are no longer needed.
+     *
+     * @param tileId
+     * @param height
+     * @return
+     */
+    public static UniformTerrainTextures acquire(int tileId, float height) {
+        Long key = getKey(tileId, height);
+        UniformTerrainTextures textures = instances.get(key);
+        if (textures == null){
+            textures = new UniformTerrainTextures(tileId, height);
+            instances.put(key, textures);
+        }
+        textures.refCount++;
+        return textures;
+    }
+
+    /**
+     * Stops using these textures, freeing their layer if they are no longer
+     * used by any TerrainSection.
+     */
+    public void release() {
+        refCount--;
+        if (refCount > 0){
+            return;
+        }
+        instances.remove(getKey(tileId, height));
+        TerrainTextureArena.free(layer);
+    }
+
+    /**
+     * Determines whether these textures represent the given tile and height.
+     *
+     * @param tileId
+     * @param height
+     * @return
+     */
+    public boolean matches(int tileId, float height) {
+        return this.tileId == tileId
+                && Float.floatToIntBits(this.height)
+                        == Float.floatToIntBits(height);
+    }
+
+    private static long getKey(int tileId, float height) {
+        return ((long) (tileId & 0xff) << 32)
+                | (Float.floatToIntBits(height) & 0xffffffffL);
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+}
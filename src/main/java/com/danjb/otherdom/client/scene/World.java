@@ -7,59 +7,6 @@ import org.joml.Vector3f;
 
 public class World {
 
-    /////////////////////////////////////////////////////////////////////////
-    
-    /**
-     * Class representing a key to retrieve a TerrainSection.
-     * 
-     * @author Dan Bryce
-     */
-    private static class SectionKey {
-        
-        private int x, y;
-        
-        public SectionKey(int x, int y){
-            this.x = x;
-            this.y = y;
-        }
-
-        /**
-         * SectionKeys that are "equal" must return the same hash code.
-         * This is very important for the retrieval of TerrainSections.
-         * 
-         * Auto-generated by Eclipse.
-         */
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + x;
-            result = prime * result + y;
-            return result;
-        }
-
-        /**
-         * SectionKeys that contain the same co-ordinates are considered equal.
-         * This is very important for the retrieval of TerrainSections.
-         * 
-         * (Mostly) auto-generated by Eclipse.
-         */
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            SectionKey other = (SectionKey) obj;
-            return x == other.x && y == other.y;
-        }
-
-    }
-
-    /////////////////////////////////////////////////////////////////////////
-
     public static enum CompassDirection {
         NORTH,
         NORTHEAST,
@@ -101,15 +48,69 @@ public class World {
     /**
      * Grid of TerrainSections that make up the world.
      * 
-     * The reason we use a Map instead of an array is that we want to be able to
+     * The reason we use a map instead of an array is that we want to be able to
      * support:
      * 1) An expanding world.
      * 2) Negative grid co-ordinates.
+     * 
+     * This is looked up several times per frame for every visible
+     * TerrainSection, so we use a SectionMap, which does not allocate.
+     */
+    private SectionMap<TerrainSection> terrainSections = new SectionMap<>();
+
+    /**
+     * Co-ordinates of the TerrainSections that are currently being built.
+     * 
+     * The values are unused; only the keys matter.
+     */
+    private SectionMap<Boolean> pendingSections = new SectionMap<>();
+
+    /**
+     * Object responsible for building new TerrainSections.
+     */
+    private TerrainSectionLoader sectionLoader;
+
+    /**
+     * Object responsible for deciding which TerrainSections should be loaded.
+     */
+    private TerrainStreamer terrainStreamer = new TerrainStreamer();
+
+    /**
+     * Data of TerrainSections that were modified before being unloaded.
+     * 
+     * Unmodified TerrainSections are not kept, since they can simply be
+     * generated again, so this only grows as the terrain is edited.
      */
-    private Map<SectionKey, TerrainSection> terrainSections = new HashMap<>();
+    private SectionMap<TerrainSectionData> savedSections = new SectionMap<>();
 
     private Map<Integer, Player> players = new HashMap<>();
+
+    /**
+     * Changes to the terrain made during the current frame.
+     */
+    private TerrainEdit terrainEdit = new TerrainEdit();
     
+    /**
+     * Creates a World whose terrain is flat.
+     * 
+     * BillboardModels are placed at sea level, so generated terrain (e.g.
+     * NoiseTerrainGenerator) must be requested explicitly using
+     * {@link #World(TerrainGenerator)}.
+     */
+    public World() {
+        this(new FlatTerrainGenerator());
+    }
+
+    /**
+     * Creates a World whose terrain is created by the given
+     * TerrainGenerator.
+     * 
+     * @param generator
+     */
+    public World(TerrainGenerator generator) {
+        sectionLoader = new TerrainSectionLoader(generator);
+    }
+
     public void addPlayer(int id, Player player){
         players.put(id, player);
     }
@@ -119,21 +120,198 @@ public class World {
     }
     
     /**
-     * Retrives the TerrainSection at the given co-ordinates.
+     * Retrieves the TerrainSection at the given co-ordinates.
+     * 
+     * TerrainSections are only available once they have been loaded by the
+     * TerrainStreamer; until then this returns null, and callers should skip
+     * the TerrainSection.
+     * 
      * @param sectionX
      * @param sectionZ
      * @return
      */
     public TerrainSection getSection(int sectionX, int sectionZ){
-        SectionKey key = new SectionKey(sectionX, sectionZ);
-        TerrainSection section = terrainSections.get(key);
-        if (section == null){
-            // Automatically expand when new TerrainSections are needed
-            TerrainSection newSection = new TerrainSection(sectionX, sectionZ);
-            terrainSections.put(key, newSection);
-            return newSection;
+        return terrainSections.get(sectionX, sectionZ);
+    }
+
+    /**
+     * Starts loading the TerrainSection at the given co-ordinates, if it is
+     * not already loaded or being loaded.
+     * 
+     * If the TerrainSection was previously modified and unloaded, it is
+     * restored from its saved data; otherwise it is created by the World's
+     * TerrainGenerator.
+     * 
+     * @param sectionX
+     * @param sectionZ
+     */
+    void requestSection(int sectionX, int sectionZ) {
+        if (terrainSections.contains(sectionX, sectionZ)
+                || pendingSections.contains(sectionX, sectionZ)){
+            return;
+        }
+        pendingSections.put(sectionX, sectionZ, Boolean.TRUE);
+        sectionLoader.requestSection(
+                sectionX, sectionZ, savedSections.get(sectionX, sectionZ));
+    }
+
+    /**
+     * Unloads every TerrainSection further than the given distance from the
+     * given section co-ordinates.
+     * 
+     * Modified TerrainSections are saved first, so that they can be restored
+     * later. TerrainSections that are still being built are discarded when
+     * they finish.
+     * 
+     * This must be called on the rendering thread.
+     * 
+     * @param sectionX
+     * @param sectionZ
+     * @param maxDistance Distance in whole sections, along the furthest
+     * axis.
+     */
+    void unloadDistantSections(int sectionX, int sectionZ, int maxDistance) {
+        
+        terrainSections.removeIf((x, z, section) -> {
+            if (getDistance(x, z, sectionX, sectionZ) <= maxDistance){
+                return false;
+            }
+            if (section.isModified()){
+                savedSections.put(x, z, section.createData());
+            }
+            unlinkNeighbours(section);
+            section.delete();
+            return true;
+        });
+        
+        pendingSections.removeIf((x, z, pending) ->
+                getDistance(x, z, sectionX, sectionZ) > maxDistance);
+    }
+
+    /**
+     * Gets the distance between two sets of section co-ordinates, measured
+     * in whole sections along the furthest axis.
+     * 
+     * @param x1
+     * @param z1
+     * @param x2
+     * @param z2
+     * @return
+     */
+    private static int getDistance(int x1, int z1, int x2, int z2) {
+        return Math.max(Math.abs(x1 - x2), Math.abs(z1 - z2));
+    }
+
+    /**
+     * Adds a TerrainSection that has finished building.
+     * 
+     * The borders of the height maps of the new TerrainSection, and those of
+     * its neighbours, are updated now that the heights on both sides of each
+     * border are known.
+     * 
+     * If the TerrainSection is no longer wanted (because it was unloaded
+     * while it was being built), it is discarded instead.
+     * 
+     * @param section
+     * @return True if the TerrainSection was added.
+     */
+    boolean addSection(TerrainSection section) {
+        int sectionX = section.getSectionX();
+        int sectionZ = section.getSectionZ();
+        if (pendingSections.remove(sectionX, sectionZ) == null){
+            return false;
+        }
+        terrainSections.put(sectionX, sectionZ, section);
+        linkNeighbours(section);
+        
+        // The TerrainSection now holds any saved changes
+        savedSections.remove(sectionX, sectionZ);
+        
+        int n = TerrainSection.NUM_TILES_PER_ROW;
+        section.refreshBorderHeights(-1, -1, n + 1, n + 1);
+        terrainEdit.refreshNeighbourBorders(section, 0, 0, n, n);
+        return true;
+    }
+
+    /**
+     * Forgets a TerrainSection that could not be built.
+     * 
+     * It is no longer pending, and the TerrainStreamer is told to refresh
+     * the loaded area, so it will be requested again even if the player does
+     * not move.
+     * 
+     * @param sectionX
+     * @param sectionZ
+     */
+    void sectionFailed(int sectionX, int sectionZ) {
+        pendingSections.remove(sectionX, sectionZ);
+        terrainStreamer.requestRefresh();
+    }
+
+    /**
+     * Links the given TerrainSection to every loaded TerrainSection around
+     * it, and vice versa.
+     * 
+     * @param section
+     */
+    private void linkNeighbours(TerrainSection section) {
+        for (int dz = -1; dz <= 1; dz++){
+            for (int dx = -1; dx <= 1; dx++){
+                if (dx == 0 && dz == 0){
+                    continue;
+                }
+                TerrainSection neighbour = terrainSections.get(
+                        section.getSectionX() + dx,
+                        section.getSectionZ() + dz);
+                if (neighbour != null){
+                    section.setNeighbour(dx, dz, neighbour);
+                    neighbour.setNeighbour(-dx, -dz, section);
+                }
+            }
         }
-        return section;
+    }
+
+    /**
+     * Removes the links between the given TerrainSection and the
+     * TerrainSections around it.
+     * 
+     * @param section
+     */
+    private void unlinkNeighbours(TerrainSection section) {
+        for (int dz = -1; dz <= 1; dz++){
+            for (int dx = -1; dx <= 1; dx++){
+                if (dx == 0 && dz == 0){
+                    continue;
+                }
+                TerrainSection neighbour = section.getNeighbour(dx, dz);
+                if (neighbour != null){
+                    neighbour.setNeighbour(-dx, -dz, null);
+                    section.setNeighbour(dx, dz, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the TerrainEdit through which changes to the terrain should be
+     * made.
+     * 
+     * Changes are sent to the GPU once per frame, when the World is updated.
+     * 
+     * @return
+     */
+    public TerrainEdit getTerrainEdit() {
+        return terrainEdit;
+    }
+
+    /**
+     * Gets the TerrainStreamer, which controls how far from the player
+     * TerrainSections are loaded.
+     * 
+     * @return
+     */
+    public TerrainStreamer getTerrainStreamer() {
+        return terrainStreamer;
     }
 
     public Player getCurrentPlayer() {
@@ -144,6 +322,9 @@ public class World {
         for (Player player : players.values()){
             player.update();
         }
+        terrainStreamer.update(this);
+        sectionLoader.uploadBuiltSections(this);
+        terrainEdit.commit();
     }
     
 }
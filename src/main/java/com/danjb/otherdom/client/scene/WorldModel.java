@@ -1,7 +1,7 @@
 package com.danjb.otherdom.client.scene;
 
 import org.joml.Quaternionf;
-import org.joml.Vector3f;
+import org.joml.Vector3d;
 
 import com.danjb.otherdom.client.Texture;
 
@@ -14,8 +14,11 @@ public abstract class WorldModel {
 
     /**
      * The position of this WorldModel within the game world (x, y, z).
+     * 
+     * This is stored in double precision so that it stays accurate far from
+     * the origin; see Camera.getRelativePos().
      */
-    protected Vector3f position;
+    protected Vector3d position;
 
     /**
      * Orientation represented as a Quaternion.
@@ -30,7 +33,7 @@ public abstract class WorldModel {
 
     private Texture texture;
     
-    public WorldModel(Vector3f position, Texture texture) {
+    public WorldModel(Vector3d position, Texture texture) {
         this.position = position;
         this.texture = texture;
     }
@@ -39,7 +42,7 @@ public abstract class WorldModel {
         // Nothing to do (yet)
     }
 
-    public Vector3f getPos(){
+    public Vector3d getPos(){
         return position;
     }
 
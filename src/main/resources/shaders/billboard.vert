@@ -1,25 +1,48 @@
 #version 330
 
-uniform mat4 projection;
-uniform mat4 modelView;
-uniform vec3 lightAmbientColour;
-uniform float lightAmbientIntensity;
-uniform vec3 lightDiffuseColour;
-uniform float lightDiffuseIntensity;
-uniform float scale;
+// Number of position units per metre (see VertexFormat)
+const float POSITION_SCALE = 256.0;
+
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
+// Width of each frame within a BillboardModel's texture
+const float TEX_FRAME_WIDTH = 1.0 / 8.0;
 
 layout(location = 0) in vec3 vertex;
+// Texture co-ordinates within the first frame
 layout(location = 4) in vec2 texCoord;
 
+// Per-instance: position of the BillboardModel relative to the camera (xyz),
+// and its scale (w)
+layout(location = 7) in vec4 billboard;
+// Per-instance: frame of the texture to draw, and selection code
+layout(location = 8) in vec2 billboardFrame;
+
 out Data {
     vec4 colour;
     vec2 texCoord;
+    float fogFactor;
 } DataOut;
 
 void main(void) {
-    // Only the origin is transformed using the modelview matrix
-    gl_Position = projection * (modelView * vec4(0.0, 0.0, 0.0, 1.0) + 
-            vec4(scale * vertex.x, scale * vertex.z, 0, 0.0));
+    // Only the origin is transformed using the view matrix
+    vec3 offset = vertex / POSITION_SCALE;
+    float scale = billboard.w;
+    vec4 viewOrigin = view * vec4(billboard.xyz, 1.0);
+    gl_Position = projection * (viewOrigin + 
+            vec4(scale * offset.x, scale * offset.z, 0, 0.0));
     
     vec3 ambientComponent = lightAmbientIntensity * lightAmbientColour;
     ambientComponent = clamp(ambientComponent, 0.0, 1.0);
@@ -29,5 +52,13 @@ void main(void) {
 
     vec3 colourResult = max(diffuseComponent, ambientComponent);
     DataOut.colour = vec4(colourResult, 1.0);
-    DataOut.texCoord = texCoord;
+    DataOut.texCoord = vec2(
+            texCoord.x + billboardFrame.x * TEX_FRAME_WIDTH, texCoord.y);
+    
+    // Distant BillboardModels fade into the fog, like the terrain around
+    // them. The whole quad uses the distance to its origin, so it fades
+    // evenly.
+    DataOut.fogFactor = clamp(
+            (length(viewOrigin.xyz) - fogStart) / (fogEnd - fogStart),
+            0.0, 1.0);
 }
@@ -1,10 +1,10 @@
 #version 330
 
-uniform vec3 selectionCode;
 uniform sampler2D texUnit;
 
 in Data {
     vec2 texCoord;
+    flat vec3 selectionCode;
 } DataIn;
 
 out vec4 fragColour;
@@ -17,5 +17,5 @@ void main() {
         discard;
     }
 
-    fragColour = vec4(selectionCode, 1.0);
+    fragColour = vec4(DataIn.selectionCode, 1.0);
 }
@@ -1,12 +1,21 @@
 #version 330
 
+// Number of tiles in one row / column of a TerrainSection
+const int NUM_TILES_PER_ROW = 32;
+
 in Data {
-    vec3 selectionCode;
+    vec2 tilePos;
 } DataIn;
 
 out vec4 fragColour;
 
 void main()
 {
-    fragColour = vec4(DataIn.selectionCode, 1.0);
+    // Find the tile containing this fragment. Fragments on the far edge of
+    // the TerrainSection (e.g. skirts) belong to the last tile.
+    ivec2 tile = clamp(ivec2(floor(DataIn.tilePos)), 0, NUM_TILES_PER_ROW - 1);
+    
+    // The selection code identifies the tile. We divide by 255 because
+    // colours are floats in the range 0-1.
+    fragColour = vec4(vec3(tile, 0.0) / 255.0, 1.0);
 }
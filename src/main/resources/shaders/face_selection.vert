@@ -1,16 +1,55 @@
 #version 330
 
-uniform mat4 projection;
-uniform mat4 modelView;
+// Number of position units per metre (see VertexFormat)
+const float POSITION_SCALE = 256.0;
+
+// Width of each terrain tile, in metres (see TerrainSection)
+const float TILE_WIDTH = 1.0;
+
+// Width of each TerrainSection, in metres
+const float SECTION_WIDTH = 32.0 * TILE_WIDTH;
+
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
+// Position of the player's section relative to the camera
+uniform vec3 modelPos;
+
+// Height of each vertex, with a 1-texel border from the neighbouring sections.
+// Each TerrainSection has its own layer (see TerrainTextureArena).
+uniform sampler2DArray heightMap;
 
 layout(location = 0) in vec3 vertex;
-layout(location = 5) in vec3 selectionCode;
+
+// Per-instance: offset of the TerrainSection from the player's section (x, z),
+// and the layer holding its textures
+layout(location = 6) in ivec3 section;
 
 out Data {
-    vec3 selectionCode;
+    vec2 tilePos;
 } DataOut;
 
 void main() {
-    gl_Position = projection * modelView * vec4(vertex, 1.0);
-    DataOut.selectionCode = selectionCode;
+    // The height of each vertex comes from the height map
+    vec3 position = vertex / POSITION_SCALE;
+    ivec3 texel = ivec3(ivec2(round(position.xz / TILE_WIDTH)) + 1, section.z);
+    position.y += texelFetch(heightMap, texel, 0).r;
+    vec3 sectionOffset = vec3(section.x, 0.0, section.y) * SECTION_WIDTH;
+    gl_Position = projection * view
+            * vec4(position + sectionOffset + modelPos, 1.0);
+    
+    // Position within the TerrainSection, in tiles. Vertices are shared
+    // between neighbouring tiles, so the tile itself is found per-fragment.
+    DataOut.tilePos = position.xz / TILE_WIDTH;
 }
@@ -1,9 +1,11 @@
 #version 330
 
-uniform vec3 selectionCode;
+in Data {
+    flat vec3 selectionCode;
+} DataIn;
 
 out vec4 fragColour;
 
 void main() {
-    fragColour = vec4(selectionCode, 1.0);
+    fragColour = vec4(DataIn.selectionCode, 1.0);
 }
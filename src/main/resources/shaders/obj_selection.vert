@@ -1,16 +1,77 @@
 #version 330
 
-uniform mat4 projection;
-uniform mat4 modelView;
+// Number of position units per metre (see VertexFormat)
+const float POSITION_SCALE = 256.0;
+
+// Width of each terrain tile, in metres (see TerrainSection)
+const float TILE_WIDTH = 1.0;
+
+// Width of each TerrainSection, in metres
+const float SECTION_WIDTH = 32.0 * TILE_WIDTH;
+
+// Selection code used for all terrain (see MousePicker)
+const int CODE_TERRAIN = 1;
+
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
+// Position of the player's section relative to the camera
+uniform vec3 modelPos;
+
+// Height of each vertex, with a 1-texel border from the neighbouring sections.
+// Each TerrainSection has its own layer (see TerrainTextureArena).
+uniform sampler2DArray heightMap;
 
 layout(location = 0) in vec3 vertex;
-layout(location = 4) in vec2 texCoord;
+
+// Per-instance: offset of the TerrainSection from the player's section (x, z),
+// and the layer holding its textures
+layout(location = 6) in ivec3 section;
 
 out Data {
-    vec2 texCoord;
+    flat vec3 selectionCode;
 } DataOut;
 
 void main() {
-    gl_Position = projection * modelView * vec4(vertex, 1.0);
-    DataOut.texCoord = texCoord;
+    // The height of each vertex comes from the height map
+    vec3 position = vertex / POSITION_SCALE;
+    ivec3 texel = ivec3(ivec2(round(position.xz / TILE_WIDTH)) + 1, section.z);
+    position.y += texelFetch(heightMap, texel, 0).r;
+    vec3 sectionOffset = vec3(section.x, 0.0, section.y) * SECTION_WIDTH;
+    gl_Position = projection * view
+            * vec4(position + sectionOffset + modelPos, 1.0);
+    
+    /*
+     * The selection code is only 3 bytes long. What we really want to encode
+     * in these bytes is this:
+     * 
+     * 1) Terrain identifier (constant)
+     * 2) Section X
+     * 3) Section Z
+     * 
+     * However, this would only allow up to 255 clickable sections in each
+     * axis. Therefore we instead use a value relative to the player's current
+     * section co-ordinates, which is exactly the offset we are given.
+     * 
+     * We add 128 to ensure that the value is always positive, as negative
+     * numbers seem to be problematic (OpenGL reads the values as unsigned
+     * bytes). MousePicker subtracts this same value later.
+     * 
+     * We divide by 255 because colours are floats in the range 0-1.
+     */
+    DataOut.selectionCode = vec3(
+            CODE_TERRAIN,
+            section.x + 128,
+            section.y + 128) / 255.0;
 }
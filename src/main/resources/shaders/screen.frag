@@ -2,9 +2,24 @@
 
 uniform sampler2D texUnit;
 
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
 in Data {
     vec4 colour;
     vec2 texCoord;
+    float fogFactor;
 } DataIn;
 
 out vec4 fragColour;
@@ -18,4 +33,5 @@ void main() {
     }
     
     fragColour = DataIn.colour * texColour;
+    fragColour.rgb = mix(fragColour.rgb, fogColour, DataIn.fogFactor);
 }
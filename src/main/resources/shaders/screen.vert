@@ -1,29 +1,75 @@
 #version 330
 
-uniform mat4 projection;
-uniform mat4 modelView;
-uniform vec3 lightAmbientColour;
-uniform float lightAmbientIntensity;
-uniform vec3 lightDiffuseAngle;
-uniform vec3 lightDiffuseColour;
-uniform float lightDiffuseIntensity;
+// Number of position units per metre (see VertexFormat)
+const float POSITION_SCALE = 256.0;
+
+// Width of each terrain tile, in metres (see TerrainSection)
+const float TILE_WIDTH = 1.0;
+
+// Width of each TerrainSection, in metres
+const float SECTION_WIDTH = 32.0 * TILE_WIDTH;
+
+// Material colours of every vertex.
+// For now our terrain doesn't have any special lighting properties.
+const vec3 MATERIAL_AMBIENT_COLOUR = vec3(1.0, 1.0, 1.0);
+const vec3 MATERIAL_DIFFUSE_COLOUR = vec3(1.0, 1.0, 1.0);
+
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
+// Position of the player's section relative to the camera
+uniform vec3 modelPos;
+
+// Height of each vertex, with a 1-texel border from the neighbouring sections.
+// Each TerrainSection has its own layer (see TerrainTextureArena).
+uniform sampler2DArray heightMap;
 
 layout(location = 0) in vec3 vertex;
-layout(location = 1) in vec3 vertexNormal;
-layout(location = 2) in vec3 materialAmbientColour;
-layout(location = 3) in vec3 materialDiffuseColour;
-layout(location = 4) in vec2 texCoord;
+
+// Per-instance: offset of the TerrainSection from the player's section (x, z),
+// and the layer holding its textures
+layout(location = 6) in ivec3 section;
 
 out Data {
     vec4 colour;
-    vec2 texCoord;
+    vec2 tilePos;
+    float fogFactor;
+    flat int layer;
 } DataOut;
 
 void main(void) {
-    gl_Position = projection * modelView * vec4(vertex, 1.0);
+    // The mesh only holds the grid position of each vertex (and the offset of
+    // any skirt vertices); the height comes from the height map
+    vec3 position = vertex / POSITION_SCALE;
+    ivec3 texel = ivec3(ivec2(round(position.xz / TILE_WIDTH)) + 1, section.z);
+    position.y += texelFetch(heightMap, texel, 0).r;
+    vec3 sectionOffset = vec3(section.x, 0.0, section.y) * SECTION_WIDTH;
+    vec4 viewPosition = view * vec4(position + sectionOffset + modelPos, 1.0);
+    gl_Position = projection * viewPosition;
+    
+    // Calculate the normal from the heights of the adjacent vertices
+    float heightLeft = texelFetch(heightMap, texel + ivec3(-1, 0, 0), 0).r;
+    float heightRight = texelFetch(heightMap, texel + ivec3(1, 0, 0), 0).r;
+    float heightUp = texelFetch(heightMap, texel + ivec3(0, -1, 0), 0).r;
+    float heightDown = texelFetch(heightMap, texel + ivec3(0, 1, 0), 0).r;
+    vec3 vertexNormal = normalize(vec3(
+            heightLeft - heightRight,
+            2.0 * TILE_WIDTH,
+            heightUp - heightDown));
     
-    vec3 ambientComponent =
-            lightAmbientIntensity * lightAmbientColour * materialAmbientColour;
+    vec3 ambientComponent = lightAmbientIntensity * lightAmbientColour
+            * MATERIAL_AMBIENT_COLOUR;
     ambientComponent = clamp(ambientComponent, 0.0, 1.0);
     
     // The dot product gives us a measure of how "aligned" 2 vectors are,
@@ -34,10 +80,18 @@ void main(void) {
         dotProduct = 0;
     }
     vec3 diffuseComponent = lightDiffuseIntensity * dotProduct * 
-            lightDiffuseColour * materialDiffuseColour;
+            lightDiffuseColour * MATERIAL_DIFFUSE_COLOUR;
     diffuseComponent = clamp(diffuseComponent, 0.0, 1.0);
 
     vec3 colourResult = max(diffuseComponent, ambientComponent);
     DataOut.colour = vec4(colourResult, 1.0);
-    DataOut.texCoord = texCoord;
+    
+    // Position within the TerrainSection, in tiles
+    DataOut.tilePos = position.xz / TILE_WIDTH;
+    DataOut.layer = section.z;
+    
+    // Distant terrain fades into the fog, hiding the edge of the view
+    DataOut.fogFactor = clamp(
+            (length(viewPosition.xyz) - fogStart) / (fogEnd - fogStart),
+            0.0, 1.0);
 }
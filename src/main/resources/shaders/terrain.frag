@@ -0,0 +1,61 @@
+#version 330
+
+// Number of tiles in one row / column of a TerrainSection
+const int NUM_TILES_PER_ROW = 32;
+
+// Layout of the terrain texture
+const float TEXTURE_SIZE = 512.0;
+const int TEXTURE_TILES_X = 8;
+const float TEXTURE_TILE_SIZE = 64.0;
+
+uniform sampler2D texUnit;
+
+// ID of each tile in the TerrainSection.
+// Each TerrainSection has its own layer (see TerrainTextureArena).
+uniform usampler2DArray tileMap;
+
+// Settings shared by everything drawn in a frame (see FrameUniforms)
+layout(std140) uniform Frame {
+    mat4 projection;
+    mat4 view;
+    vec3 lightAmbientColour;
+    float lightAmbientIntensity;
+    vec3 lightDiffuseColour;
+    float lightDiffuseIntensity;
+    vec3 lightDiffuseAngle;
+    float fogStart;
+    vec3 fogColour;
+    float fogEnd;
+};
+
+in Data {
+    vec4 colour;
+    vec2 tilePos;
+    float fogFactor;
+    flat int layer;
+} DataIn;
+
+out vec4 fragColour;
+
+void main() {
+    // Find the tile containing this fragment. Fragments on the far edge of
+    // the TerrainSection (e.g. skirts) belong to the last tile.
+    ivec2 tile = clamp(ivec2(floor(DataIn.tilePos)), 0, NUM_TILES_PER_ROW - 1);
+    vec2 posInTile = clamp(DataIn.tilePos - vec2(tile), 0.0, 1.0);
+    int tileId = int(texelFetch(tileMap, ivec3(tile, DataIn.layer), 0).r);
+    
+    // Find the pixel co-ordinates of the tile within the texture, inset by
+    // half a pixel on each side (half-pixel correction)
+    vec2 texTile = vec2(tileId % TEXTURE_TILES_X, tileId / TEXTURE_TILES_X);
+    vec2 texPixel = texTile * TEXTURE_TILE_SIZE + 0.5
+            + posInTile * (TEXTURE_TILE_SIZE - 1.0);
+    vec4 texColour = texture(texUnit, texPixel / TEXTURE_SIZE);
+    
+    if (DataIn.colour.w == 0.0 || texColour.w == 0.0){
+        // Discard transparent fragments, so they don't affect the depth buffer
+        discard;
+    }
+    
+    fragColour = DataIn.colour * texColour;
+    fragColour.rgb = mix(fragColour.rgb, fogColour, DataIn.fogFactor);
+}
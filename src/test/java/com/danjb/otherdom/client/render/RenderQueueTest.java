@@ -0,0 +1,111 @@
+package com.danjb.otherdom.client.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RenderQueueTest extends TestCase {
+
+    private RenderQueue queue;
+
+    /**
+     * Items in the order they were drawn.
+     */
+    private List<Object> drawn;
+
+    private RenderQueue.ItemRenderer renderer;
+
+    @Override
+    protected void setUp() {
+        queue = new RenderQueue();
+        drawn = new ArrayList<>();
+        renderer = (scene, mode, item) -> drawn.add(item);
+    }
+
+    public void testOpaqueBeforeAlpha() {
+        queue.submit(RenderQueue.PASS_ALPHA, 1, 1, 1, 0, renderer, "alpha");
+        queue.submit(RenderQueue.PASS_OPAQUE, 63, 4095, 4095, 1, renderer,
+                "opaque");
+        assertDrawOrder("opaque", "alpha");
+    }
+
+    public void testOpaqueGroupedByProgramThenTextureThenVao() {
+        queue.submit(RenderQueue.PASS_OPAQUE, 2, 1, 1, 0, renderer, "p2");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 2, 1, 0, renderer, "p1 t2");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 2, 0, renderer,
+                "p1 t1 v2");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.5f, renderer,
+                "p1 t1 v1");
+        assertDrawOrder("p1 t1 v1", "p1 t1 v2", "p1 t2", "p2");
+    }
+
+    public void testOpaqueNearestFirstWithinState() {
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.9f, renderer, "far");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.1f, renderer, "near");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.5f, renderer, "mid");
+        assertDrawOrder("near", "mid", "far");
+    }
+
+    public void testAlphaFurthestFirstRegardlessOfState() {
+        queue.submit(RenderQueue.PASS_ALPHA, 1, 1, 1, 0.1f, renderer, "near");
+        queue.submit(RenderQueue.PASS_ALPHA, 2, 2, 2, 0.9f, renderer, "far");
+        queue.submit(RenderQueue.PASS_ALPHA, 3, 1, 1, 0.5f, renderer, "mid");
+        assertDrawOrder("far", "mid", "near");
+    }
+
+    public void testTiesKeepSubmissionOrder() {
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.5f, renderer, "a");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.5f, renderer, "b");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0.5f, renderer, "c");
+        assertDrawOrder("a", "b", "c");
+    }
+
+    public void testDepthIsClamped() {
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 5, renderer, "beyond");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 1, renderer, "far");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, -5, renderer,
+                "behind");
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0, renderer, "near");
+        assertDrawOrder("behind", "near", "beyond", "far");
+    }
+
+    public void testOversizedIdsStayInTheirFields() {
+        // Truncated IDs must not spill into the depth or pass fields
+        queue.submit(RenderQueue.PASS_ALPHA, 0, 0, 0, 0.5f, renderer,
+                "alpha");
+        queue.submit(RenderQueue.PASS_OPAQUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                0.9f, renderer, "opaque far");
+        queue.submit(RenderQueue.PASS_OPAQUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                0.1f, renderer, "opaque near");
+        assertDrawOrder("opaque near", "opaque far", "alpha");
+    }
+
+    public void testExecuteEmptiesQueue() {
+        queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1, 0, renderer, "a");
+        assertDrawOrder("a");
+
+        drawn.clear();
+        queue.execute(null, null);
+        assertTrue(drawn.isEmpty());
+    }
+
+    public void testGrowsBeyondInitialCapacity() {
+        Object[] expected = new Object[1000];
+        for (int i = 0; i < expected.length; i++){
+            expected[i] = i;
+            queue.submit(RenderQueue.PASS_OPAQUE, 1, 1, 1,
+                    i / (float) expected.length, renderer, i);
+        }
+        assertDrawOrder(expected);
+    }
+
+    private void assertDrawOrder(Object... expected) {
+        queue.execute(null, null);
+        assertEquals(Arrays.asList(expected), drawn);
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.danjb.otherdom.client.scene;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class NoiseTerrainGeneratorTest extends TestCase {
+
+    private static final int V = TerrainSection.NUM_VERTICES_PER_ROW;
+
+    public void testSameSeedGivesSameTerrain() {
+        NoiseTerrainGenerator a = new NoiseTerrainGenerator(1234);
+        NoiseTerrainGenerator b = new NoiseTerrainGenerator(1234);
+
+        // Generate in a different order, to show it makes no difference
+        a.generate(5, 5);
+        for (int z = -2; z <= 2; z++){
+            for (int x = -2; x <= 2; x++){
+                TerrainSectionData dataA = a.generate(x, z);
+                TerrainSectionData dataB = b.generate(x, z);
+                assertTrue(Arrays.equals(
+                        dataA.getHeights(), dataB.getHeights()));
+                assertTrue(Arrays.equals(
+                        dataA.getTileIds(), dataB.getTileIds()));
+            }
+        }
+    }
+
+    public void testDifferentSeedsGiveDifferentTerrain() {
+        TerrainSectionData a = new NoiseTerrainGenerator(1).generate(0, 0);
+        TerrainSectionData b = new NoiseTerrainGenerator(2).generate(0, 0);
+        assertFalse(Arrays.equals(a.getHeights(), b.getHeights()));
+    }
+
+    public void testSeamsMatchAlongX() {
+        NoiseTerrainGenerator generator = new NoiseTerrainGenerator(42);
+        for (int sectionZ = -2; sectionZ <= 1; sectionZ++){
+            for (int sectionX = -2; sectionX <= 1; sectionX++){
+                float[] left = generator.generate(sectionX, sectionZ)
+                        .getHeights();
+                float[] right = generator.generate(sectionX + 1, sectionZ)
+                        .getHeights();
+                for (int z = 0; z < V; z++){
+                    assertEquals(left[z * V + (V - 1)], right[z * V], 0);
+                }
+            }
+        }
+    }
+
+    public void testSeamsMatchAlongZ() {
+        NoiseTerrainGenerator generator = new NoiseTerrainGenerator(42);
+        for (int sectionZ = -2; sectionZ <= 1; sectionZ++){
+            for (int sectionX = -2; sectionX <= 1; sectionX++){
+                float[] top = generator.generate(sectionX, sectionZ)
+                        .getHeights();
+                float[] bottom = generator.generate(sectionX, sectionZ + 1)
+                        .getHeights();
+                for (int x = 0; x < V; x++){
+                    assertEquals(top[(V - 1) * V + x], bottom[x], 0);
+                }
+            }
+        }
+    }
+
+    public void testHeightsWithinLimits() {
+        NoiseTerrainGenerator generator = new NoiseTerrainGenerator(7);
+        for (int z = -2; z <= 2; z++){
+            for (int x = -2; x <= 2; x++){
+                for (float height : generator.generate(x, z).getHeights()){
+                    assertTrue(height >= -TerrainSection.MAX_HEIGHT);
+                    assertTrue(height <= TerrainSection.MAX_HEIGHT);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.danjb.otherdom.client.scene;
+
+import junit.framework.TestCase;
+
+public class SectionMapTest extends TestCase {
+
+    /**
+     * Capacity of a newly-created SectionMap.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    public void testKeyRoundTrip() {
+        int[] coords = { 0, 1, -1, 12345, -12345,
+                Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int x : coords){
+            for (int z : coords){
+                long key = SectionMap.getKey(x, z);
+                assertEquals(x, SectionMap.getX(key));
+                assertEquals(z, SectionMap.getZ(key));
+            }
+        }
+    }
+
+    public void testNegativeCoordinates() {
+        SectionMap<String> map = new SectionMap<>();
+        map.put(-1, -1, "a");
+        map.put(-1, 1, "b");
+        map.put(1, -1, "c");
+        map.put(Integer.MIN_VALUE, Integer.MAX_VALUE, "d");
+
+        assertEquals("a", map.get(-1, -1));
+        assertEquals("b", map.get(-1, 1));
+        assertEquals("c", map.get(1, -1));
+        assertEquals("d", map.get(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertNull(map.get(1, 1));
+        assertNull(map.get(Integer.MAX_VALUE, Integer.MIN_VALUE));
+        assertEquals(4, map.size());
+    }
+
+    public void testPutReplacesValue() {
+        SectionMap<String> map = new SectionMap<>();
+        map.put(3, 4, "a");
+        map.put(3, 4, "b");
+        assertEquals("b", map.get(3, 4));
+        assertEquals(1, map.size());
+    }
+
+    public void testPutNullThrows() {
+        SectionMap<String> map = new SectionMap<>();
+        try {
+            map.put(0, 0, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    public void testGrowKeepsEntries() {
+        SectionMap<Integer> map = new SectionMap<>();
+        for (int z = -20; z <= 20; z++){
+            for (int x = -20; x <= 20; x++){
+                map.put(x, z, x * 1000 + z);
+            }
+        }
+        assertEquals(41 * 41, map.size());
+        for (int z = -20; z <= 20; z++){
+            for (int x = -20; x <= 20; x++){
+                assertEquals(Integer.valueOf(x * 1000 + z), map.get(x, z));
+            }
+        }
+    }
+
+    public void testRemoveMissing() {
+        SectionMap<String> map = new SectionMap<>();
+        map.put(0, 0, "a");
+        assertNull(map.remove(1, 0));
+        assertEquals(1, map.size());
+    }
+
+    public void testRemoveInsideProbeChain() {
+        // Entries with the same ideal slot are stored one after another
+        long[] keys = findKeysWithIdealSlot(10, 4);
+        checkRemovalFromEveryPosition(keys);
+    }
+
+    public void testRemoveInsideWrappedProbeChain() {
+        // Entries whose ideal slot is the last one wrap around to the start
+        long[] keys = findKeysWithIdealSlot(INITIAL_CAPACITY - 1, 3);
+        long[] wrapped = findKeysWithIdealSlot(0, 1);
+        long[] all = { keys[0], keys[1], keys[2], wrapped[0] };
+        checkRemovalFromEveryPosition(all);
+    }
+
+    public void testRemoveIf() {
+        SectionMap<String> map = new SectionMap<>();
+        for (int z = -5; z <= 5; z++){
+            for (int x = -5; x <= 5; x++){
+                map.put(x, z, x + "," + z);
+            }
+        }
+
+        int numRemoved = map.removeIf((x, z, value) ->
+                Math.abs(x) > 2 || Math.abs(z) > 2);
+
+        assertEquals(11 * 11 - 5 * 5, numRemoved);
+        assertEquals(5 * 5, map.size());
+        for (int z = -5; z <= 5; z++){
+            for (int x = -5; x <= 5; x++){
+                if (Math.abs(x) > 2 || Math.abs(z) > 2){
+                    assertNull(map.get(x, z));
+                } else {
+                    assertEquals(x + "," + z, map.get(x, z));
+                }
+            }
+        }
+    }
+
+    public void testRemoveIfPassesValues() {
+        SectionMap<Integer> map = new SectionMap<>();
+        for (int i = 0; i < 100; i++){
+            map.put(i, -i, i);
+        }
+
+        int numRemoved = map.removeIf((x, z, value) -> value % 2 == 0);
+
+        assertEquals(50, numRemoved);
+        for (int i = 0; i < 100; i++){
+            assertEquals(i % 2 != 0, map.contains(i, -i));
+        }
+    }
+
+    /**
+     * Inserts entries with the given keys, removes each one in turn from a
+     * fresh map, and checks that the others can still be found.
+     *
+     * @param keys
+     */
+    private static void checkRemovalFromEveryPosition(long[] keys) {
+        for (int removed = 0; removed < keys.length; removed++){
+            SectionMap<Integer> map = new SectionMap<>();
+            for (int i = 0; i < keys.length; i++){
+                map.put(SectionMap.getX(keys[i]), SectionMap.getZ(keys[i]), i);
+            }
+
+            long removedKey = keys[removed];
+            assertEquals(Integer.valueOf(removed), map.remove(
+                    SectionMap.getX(removedKey), SectionMap.getZ(removedKey)));
+            assertEquals(keys.length - 1, map.size());
+
+            for (int i = 0; i < keys.length; i++){
+                Integer value = map.get(
+                        SectionMap.getX(keys[i]), SectionMap.getZ(keys[i]));
+                assertEquals(i == removed ? null : Integer.valueOf(i), value);
+            }
+        }
+    }
+
+    /**
+     * Finds keys that would all be stored in the given slot of a new
+     * SectionMap, if there were no collisions.
+     *
+     * @param slot
+     * @param count
+     * @return
+     */
+    private static long[] findKeysWithIdealSlot(int slot, int count) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (int z = -100; z <= 100 && found < count; z++){
+            for (int x = -100; x <= 100 && found < count; x++){
+                long key = SectionMap.getKey(x, z);
+                if (getIdealSlot(key) == slot){
+                    keys[found++] = key;
+                }
+            }
+        }
+        assertEquals(count, found);
+        return keys;
+    }
+
+    /**
+     * Copy of SectionMap.getIdealSlot(), for a map of the initial capacity.
+     *
+     * @param key
+     * @return
+     */
+    private static int getIdealSlot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h & (INITIAL_CAPACITY - 1);
+    }
+
+}